@@ -0,0 +1,16 @@
+import java.io.IOException;
+
+public class BigramSpamOperations extends SpamOperations implements benchmarks.BigramSpam
+{
+    // The operations of the BigramBayespam benchmarks (see benchmarks.BigramSpam)
+
+    public BigramSpamOperations(String corpus) throws IOException
+    {
+        super(corpus, "BigramBayespam");
+    }
+
+    public void pruneVocab()
+    {
+        BigramBayespam.pruneVocab();
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+public class SpamOperations implements benchmarks.Spam
+{
+    // The operations of the benchmarks (see benchmarks.Spam)
+
+    private static final int SAMPLE_LINES = 100000;
+    private static final long SEED = 42;
+
+    private final boolean bigram;
+    private final File train;
+    private final File[] test;
+
+    // Samples of the tokens, lines and words of the training messages
+    private final Vector<String> tokens = new Vector<String>();
+    private final Vector<String> lines = new Vector<String>();
+    private final String[] words;
+
+    private int nextToken;
+    private int nextLine;
+    private int nextWord;
+    private int nextMessage;
+
+    public SpamOperations(String corpus, String filter) throws IOException
+    {
+        if (!filter.equals("Bayespam") && !filter.equals("BigramBayespam"))
+        {
+            throw new IllegalArgumentException("unknown spam filter " + filter);
+        }
+        this.bigram = filter.equals("BigramBayespam");
+
+        File dir = new File(corpus);
+        if (corpus.startsWith("synthetic-"))
+        {
+            int messages = Integer.parseInt(corpus.substring("synthetic-".length()));
+            dir = new File(System.getProperty("java.io.tmpdir"), "spam-benchmark-" + messages + "-" + SEED);
+            if (!dir.isDirectory())
+            {
+                new SpamCorpusGenerator(50000, 200, 0.5, 0.2, 1.0, SEED).write(dir, messages, 0.25);
+            }
+        }
+        train = new File(dir, "train");
+        test = testMessages(new File(dir, "test"));
+
+        for (File messages : train.listFiles())
+        {
+            for (File message : messages.listFiles())
+            {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(message)));
+                String line;
+                while ((line = in.readLine()) != null && lines.size() < SAMPLE_LINES)
+                {
+                    lines.add(line);
+                    StringTokenizer st = new StringTokenizer(line);
+                    while (st.hasMoreTokens())
+                    {
+                        tokens.add(st.nextToken());
+                    }
+                }
+                in.close();
+            }
+            if (lines.size() >= SAMPLE_LINES)
+            {
+                break;
+            }
+        }
+
+        words = new String[tokens.size()];
+        for (int i = 0; i < words.length; i++)
+        {
+            words[i] = Bayespam.toAlpha(tokens.get(i));
+        }
+    }
+
+    public int toAlpha()
+    {
+        return Bayespam.toAlpha(tokens.get(nextToken++ % tokens.size())).length();
+    }
+
+    public int tokenize()
+    {
+        int length = 0;
+        StringTokenizer st = new StringTokenizer(lines.get(nextLine++ % lines.size()));
+        while (st.hasMoreTokens())
+        {
+            String word = Bayespam.toAlpha(st.nextToken());
+            if (word.length() >= 4)
+            {
+                length += word.length();
+            }
+        }
+        return length;
+    }
+
+    public void addWord()
+    {
+        String word = words[nextWord++ % words.length];
+        if (word.length() >= 4)
+        {
+            Bayespam.addWord(word, (nextWord & 1) == 0 ? Bayespam.MessageType.NORMAL : Bayespam.MessageType.SPAM);
+        }
+    }
+
+    public void list()
+    {
+        if (bigram)
+        {
+            BigramBayespam.reset();
+            BigramBayespam.listDirs(train);
+        }
+        else
+        {
+            Bayespam.reset();
+            Bayespam.listDirs(train);
+        }
+    }
+
+    public void readMessages() throws IOException
+    {
+        if (bigram)
+        {
+            BigramBayespam.readMessages(BigramBayespam.MessageType.NORMAL);
+            BigramBayespam.readMessages(BigramBayespam.MessageType.SPAM);
+        }
+        else
+        {
+            Bayespam.readMessages(Bayespam.MessageType.NORMAL);
+            Bayespam.readMessages(Bayespam.MessageType.SPAM);
+        }
+    }
+
+    public int classifyMsg() throws IOException
+    {
+        File message = test[nextMessage++ % test.length];
+        return bigram ? BigramBayespam.classifyMsg(message).ordinal() : Bayespam.classifyMsg(message).ordinal();
+    }
+
+    private static File[] testMessages(File test)
+    {
+        Vector<File> messages = new Vector<File>();
+        for (File dir : test.listFiles())
+        {
+            messages.addAll(Arrays.asList(dir.listFiles()));
+        }
+        return messages.toArray(new File[messages.size()]);
+    }
+}
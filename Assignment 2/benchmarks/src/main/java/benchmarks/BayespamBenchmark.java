@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Training and classification of Bayespam. readMessages reads the whole train directory, it gets an empty
+// model with the train messages listed before every invocation.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BayespamBenchmark
+{
+    @State(Scope.Thread)
+    public static class Corpus
+    {
+        @Param({"spam-filter", "synthetic-10000"})
+        String corpus;
+
+        Spam spam;
+
+        @Setup
+        public void setup() throws ReflectiveOperationException
+        {
+            spam = Spam.load(corpus, "Bayespam");
+            spam.list();
+        }
+    }
+
+    // An empty model with the train messages listed
+    @State(Scope.Thread)
+    public static class Listed
+    {
+        Spam spam;
+
+        @Setup(Level.Invocation)
+        public void setup(Corpus corpus)
+        {
+            spam = corpus.spam;
+            spam.list();
+        }
+    }
+
+    // A trained model, for the whole trial
+    @State(Scope.Thread)
+    public static class Trained
+    {
+        Spam spam;
+
+        @Setup
+        public void setup(Corpus corpus) throws IOException
+        {
+            spam = corpus.spam;
+            spam.list();
+            spam.readMessages();
+        }
+    }
+
+    // The vocabulary grows during the trial, like it does while reading messages
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addWord(Corpus corpus)
+    {
+        corpus.spam.addWord();
+    }
+
+    @Benchmark
+    public void readMessages(Listed listed) throws IOException
+    {
+        listed.spam.readMessages();
+    }
+
+    @Benchmark
+    public int classifyMsg(Trained trained) throws IOException
+    {
+        return trained.spam.classifyMsg();
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Training and classification of BigramBayespam. readMessages reads the whole train directory and
+// pruneVocab prunes the vocabulary it read, they get a listed (and read) corpus before every invocation.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BigramBayespamBenchmark
+{
+    @State(Scope.Thread)
+    public static class Corpus
+    {
+        @Param({"spam-filter", "synthetic-10000"})
+        String corpus;
+
+        BigramSpam spam;
+
+        @Setup
+        public void setup() throws ReflectiveOperationException
+        {
+            spam = BigramSpam.load(corpus);
+            spam.list();
+        }
+    }
+
+    // An empty model with the train messages listed
+    @State(Scope.Thread)
+    public static class Listed
+    {
+        BigramSpam spam;
+
+        @Setup(Level.Invocation)
+        public void setup(Corpus corpus)
+        {
+            spam = corpus.spam;
+            spam.list();
+        }
+    }
+
+    // A model that has read the train messages
+    @State(Scope.Thread)
+    public static class Read
+    {
+        BigramSpam spam;
+
+        @Setup(Level.Invocation)
+        public void setup(Corpus corpus) throws IOException
+        {
+            spam = corpus.spam;
+            spam.list();
+            spam.readMessages();
+        }
+    }
+
+    // A trained model, for the whole trial
+    @State(Scope.Thread)
+    public static class Trained
+    {
+        BigramSpam spam;
+
+        @Setup
+        public void setup(Corpus corpus) throws IOException
+        {
+            spam = corpus.spam;
+            spam.list();
+            spam.readMessages();
+            spam.pruneVocab();
+        }
+    }
+
+    @Benchmark
+    public void readMessages(Listed listed) throws IOException
+    {
+        listed.spam.readMessages();
+    }
+
+    @Benchmark
+    public void pruneVocab(Read read)
+    {
+        read.spam.pruneVocab();
+    }
+
+    @Benchmark
+    public int classifyMsg(Trained trained) throws IOException
+    {
+        return trained.spam.classifyMsg();
+    }
+}
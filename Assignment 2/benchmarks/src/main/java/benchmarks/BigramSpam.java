@@ -0,0 +1,18 @@
+package benchmarks;
+
+public interface BigramSpam extends Spam
+{
+    // The operations of BigramBayespam, which has one more training step than Bayespam.
+    // Implemented by BigramSpamOperations in the default package, see Spam.
+
+    // BigramBayespam.pruneVocab, after readMessages
+    void pruneVocab();
+
+    // corpus as for Spam.load
+    static BigramSpam load(String corpus) throws ReflectiveOperationException
+    {
+        return (BigramSpam) Class.forName("BigramSpamOperations")
+                .getDeclaredConstructor(String.class)
+                .newInstance(corpus);
+    }
+}
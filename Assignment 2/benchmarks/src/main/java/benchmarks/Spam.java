@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface Spam
+{
+    // The benchmarked operations of Bayespam or BigramBayespam on a corpus with train/ and test/
+    // directories. The spam filters are in the default package, which JMH benchmarks can't be in and
+    // can't import from, so the operations are implemented by SpamOperations in the default package
+    // and loaded by name. The operations that take the next token, line, word or message cycle
+    // through the samples of the corpus.
+
+    // Bayespam.toAlpha of the next token, returns its length
+    int toAlpha();
+
+    // The tokenizer loop of readMessages for the next line, without addWord; returns the length of its words
+    int tokenize();
+
+    // Bayespam.addWord of the next word, as regular or spam in turn
+    void addWord();
+
+    // Empties the model and lists the train messages, so they can be read
+    void list();
+
+    // Reads the listed regular and spam messages
+    void readMessages() throws IOException;
+
+    // Classifies the next test message (the model has to be trained), returns the ordinal of its type
+    int classifyMsg() throws IOException;
+
+    // corpus is a directory (relative to where the benchmarks run) or synthetic-<messages>: a corpus
+    // written by SpamCorpusGenerator to the temp directory, once, and reused by the next runs.
+    // filter is Bayespam or BigramBayespam.
+    static Spam load(String corpus, String filter) throws ReflectiveOperationException
+    {
+        return (Spam) Class.forName("SpamOperations")
+                .getDeclaredConstructor(String.class, String.class)
+                .newInstance(corpus, filter);
+    }
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Bayespam.toAlpha of one token and the tokenizer loop of one line, on samples of the train messages
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark
+{
+    @Param({"spam-filter", "synthetic-10000"})
+    String corpus;
+
+    Spam spam;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException
+    {
+        spam = Spam.load(corpus, "Bayespam");
+    }
+
+    @Benchmark
+    public int toAlpha()
+    {
+        return spam.toAlpha();
+    }
+
+    @Benchmark
+    public int tokenize()
+    {
+        return spam.tokenize();
+    }
+}
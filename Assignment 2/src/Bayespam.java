@@ -1,12 +1,25 @@
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Bayespam
 {
@@ -31,48 +44,207 @@ public class Bayespam
                 ++counter_spam;
             }
         }
+
+        // Decrease one of the counters by one, a counter doesn't go below zero
+        public void decrementCounter(MessageType type)
+        {
+            if ( type == MessageType.NORMAL ){
+                counter_regular = Math.max(counter_regular - 1, 0);
+            } else {
+                counter_spam = Math.max(counter_spam - 1, 0);
+            }
+        }
+
+        public int total()
+        {
+            return counter_regular + counter_spam;
+        }
     }
 
     // Listings of the two subdirectories (regular/ and spam/)
     private static File[] listing_regular = new File[0];
     private static File[] listing_spam = new File[0];
 
-    // A hash table for the vocabulary (word searching is very fast in a hash table)
-    private static Hashtable <String, Multiple_Counter> vocab = new Hashtable <String, Multiple_Counter> ();
+    // The counts of a model: the working model, or the next one while retrain() builds it
+    static class Model
+    {
+        // A hash table for the vocabulary (word searching is very fast in a hash table)
+        final Hashtable <String, Multiple_Counter> vocab = new Hashtable <String, Multiple_Counter> ();
+
+        ///In hashing mode the words are counted in this table instead of vocab, null otherwise (see setHashBits())
+        final HashedCounts hashed;
 
-    ///Counters for the amount of a certain type of message (set in readMessages())
-    private static int spamCnt;
-    private static int normalCnt;
+        ///Counters for the amount of a certain type of message (set in learn())
+        int spamCnt;
+        int normalCnt;
+
+        ///Counters for the amount of words in types of messages (set in addWord())
+        int spamWordCnt;
+        int normalWordCnt;
+
+        Model(HashedCounts hashed)
+        {
+            this.hashed = hashed;
+        }
+
+        // An empty model that counts the words the same way as this one
+        Model empty()
+        {
+            return new Model(hashed != null ? new HashedCounts(Integer.numberOfTrailingZeros(hashed.buckets())) : null);
+        }
+    }
+
+    ///The working model
+    private static Model model = new Model(null);
+    
+    ///Guards the working model: learn(), unlearn() and the swap at the end of retrain() change it one at a time
+    private static final ReentrantLock lock = new ReentrantLock();
     
-    ///Counters for the amount of words in types of messages (set in addWord())
-    private static int spamWordCnt;
-    private static int normalWordCnt;
+    ///The model the classifiers read, without locking (see publish())
+    private static final AtomicReference<ModelSnapshot> snapshot = new AtomicReference<ModelSnapshot>(
+        new ModelSnapshot(-1, 0, 0, new HashMap<String, double[]>()));
+    
+    ///Set while retrain() builds the next model, one retrain runs at a time
+    private static final AtomicBoolean retraining = new AtomicBoolean();
+    
+    ///A message learned or unlearned online, while a retrain runs it is applied to the next model too
+    private static class Change
+    {
+        final Vector<String> words;
+        final MessageType type;
+        final boolean learned;
+
+        Change(Vector<String> words, MessageType type, boolean learned)
+        {
+            this.words = words;
+            this.type = type;
+            this.learned = learned;
+        }
+    }
+
+    ///The online changes since the running retrain started, null if none is running
+    private static Vector<Change> changes;
+    
+    ///Online changes are published at most every publishInterval ms, together (see setPublishInterval())
+    private static long publishInterval = 100;
+    private static long lastPublish;                    /// System.nanoTime() of the last snapshot
+    private static final AtomicBoolean publishDue = new AtomicBoolean();
+    private static Timer publisher;
+    
+    ///Maximum number of words in the vocabulary, 0 for no limit (see setVocabLimit())
+    private static int vocabLimit = 0;
+    
+    ///The tokenized messages, null to parse every message when it is read (see CorpusCache)
+    private static CorpusCache cache;
+    
+    ///Reads the messages on reader threads and tokenizes them on worker threads, null to read them one by one (see setPipeline())
+    private static MessagePipeline pipeline;
+    
+    ///The outcomes of recently classified messages by their SimHash, null to score every message (see setDuplicateCache())
+    private static DuplicateCache duplicates;
+    
+    ///Incremented on every change of the working model, a snapshot keeps the version it was taken of
+    private static int modelVersion;
+    
+    ///Early exit classification (see setEarlyExit()): stop reading once the outcome is decided, and/or after maxBytes
+    private static boolean earlyExit = false;
+    private static long maxBytes = 0;
+    
+    ///Statistics of the early exit classifications
+    private static final AtomicLong classified = new AtomicLong();
+    private static final AtomicLong stopped = new AtomicLong();
+    private static final AtomicLong bytesRead = new AtomicLong();
+    private static final AtomicLong bytesTotal = new AtomicLong();
     
     ///The tweaker constant declared in section 2.2 is here for tweaking
     private static final double EPSILON = 1;
     
     // Add a word to the vocabulary
-    private static void addWord(String word, MessageType type)
+    static void addWord(String word, MessageType type)
+    {
+        addWord(model, word, type);
+    }
+
+    private static void addWord(Model m, String word, MessageType type)
+    {
+        if (m == model)                                 /// the next model of a retrain isn't published yet
+        {
+            ++modelVersion;
+        }
+        if ( m.hashed != null ){                         // in hashing mode only the bucket of the word is counted
+            m.hashed.add(word, type == MessageType.SPAM);
+        } else {
+            addToVocab(m, word, type);
+        }
+        
+        if (type == MessageType.NORMAL){
+            ++m.normalWordCnt;
+        } else {
+            ++m.spamWordCnt;
+        }
+    }
+
+    private static void addToVocab(Model m, String word, MessageType type)
     {
         Multiple_Counter counter = new Multiple_Counter();
 
-        if ( vocab.containsKey(word) ){                  // if word exists already in the vocabulary..
-            counter = vocab.get(word);                  // get the counter from the hashtable
+        if ( m.vocab.containsKey(word) ){                // if word exists already in the vocabulary..
+            counter = m.vocab.get(word);                // get the counter from the hashtable
         }
         counter.incrementCounter(type);                 // increase the counter appropriately
 
-        vocab.put(word, counter);                       // put the word with its counter into the hashtable
-        
+        m.vocab.put(word, counter);                     // put the word with its counter into the hashtable
+    }
+
+
+    // Take a word of a message of the given type out of the vocabulary again
+    static void removeWord(String word, MessageType type)
+    {
+        removeWord(model, word, type);
+    }
+
+    private static void removeWord(Model m, String word, MessageType type)
+    {
+        if (m == model)                                 /// the next model of a retrain isn't published yet
+        {
+            ++modelVersion;
+        }
+        Multiple_Counter counter = m.vocab.get(word);
+
+        if ( m.hashed != null ){
+            m.hashed.remove(word, type == MessageType.SPAM);
+        } else if ( counter != null ){                  // the word may have been evicted (see setVocabLimit())
+            counter.decrementCounter(type);
+            if ( counter.total() == 0 ){
+                m.vocab.remove(word);
+            }
+        }
+
+        ///Evicted words still count in the totals, so the totals are always decreased
         if (type == MessageType.NORMAL){
-            ++normalWordCnt;
+            m.normalWordCnt = Math.max(m.normalWordCnt - 1, 0);
         } else {
-            ++spamWordCnt;
+            m.spamWordCnt = Math.max(m.spamWordCnt - 1, 0);
+        }
+    }
+
+
+    // Empty the vocabulary and the counters, so messages can be read again (used by the benchmarks).
+    // The classifiers keep the published model until the next publish().
+    static void reset()
+    {
+        lock.lock();
+        try {
+            model = model.empty();
+            ++modelVersion;
+        } finally {
+            lock.unlock();
         }
     }
 
 
     // List the regular and spam messages
-    private static void listDirs(File dir_location)
+    static void listDirs(File dir_location)
     {
         // List all files in the directory passed
         File[] dir_listing = dir_location.listFiles();
@@ -92,14 +264,19 @@ public class Bayespam
     // Print the current content of the vocabulary
     private static void printVocab()
     {
+        if ( model.hashed != null ){                     // there are no words to print in hashing mode
+            System.out.println(model.hashed.report());
+            return;
+        }
+
         Multiple_Counter counter = new Multiple_Counter();
 
-        for (Enumeration<String> e = vocab.keys() ; e.hasMoreElements() ;)
+        for (Enumeration<String> e = model.vocab.keys() ; e.hasMoreElements() ;)
         {   
             String word;
             
             word = e.nextElement();
-            counter  = vocab.get(word);
+            counter  = model.vocab.get(word);
             
             ///System.out.println( word + " | in regular: " + counter.counter_regular + 
             ///                    " in spam: "    + counter.counter_spam);
@@ -111,7 +288,7 @@ public class Bayespam
         }
     }
     
-    private static String toAlpha(String s)
+    static String toAlpha(String s)
     ///Filters out all non-letters and lowercases it.
     {
     	StringBuffer alpha = new StringBuffer();
@@ -129,7 +306,7 @@ public class Bayespam
 
 
     // Read the words from messages and add them to your vocabulary. The boolean type determines whether the messages are regular or not  
-    private static void readMessages(MessageType type)
+    static void readMessages(MessageType type)
     throws IOException
     {
         File[] messages = new File[0];
@@ -140,32 +317,426 @@ public class Bayespam
             messages = listing_spam;
         }
         
-        for (int i = 0; i < messages.length; ++i)
+        train(model, messages, type);
+        publish();
+    }
+
+
+    // Add the messages of a listing to a model, without publishing it
+    private static void train(final Model m, File[] listing, MessageType type)
+    throws IOException
+    {
+        final MessageType messageType = type;
+        File[] archives = select(listing, true);
+        File[] messages = select(listing, false);
+
+        if (pipelined())
         {
-            FileInputStream i_s = new FileInputStream( messages[i] );
-            BufferedReader in = new BufferedReader(new InputStreamReader(i_s));
-            String line;
-            
-            while ((line = in.readLine()) != null)                      // read a line
+            pipeline.run(messages, new MessagePipeline.Handler() {
+                public void handle(int index, InputStream message) throws IOException
+                {
+                    learn(m, readWords(message), messageType);
+                }
+            });
+        }
+        else
+        {
+            for (int i = 0; i < messages.length; ++i)
+            {
+                learn(m, readWords(messages[i]), type);
+            }
+        }
+
+        for (File archive : archives)                   /// the messages of mbox, zip and gzip files
+        {
+            MessageArchive.read(archive, new MessageArchive.Handler() {
+                public void handle(InputStream message) throws IOException
+                {
+                    learn(m, readWords(message), messageType);
+                }
+            });
+        }
+    }
+
+
+    // The archives (see MessageArchive) or the message files of a listing
+    private static File[] select(File[] listing, boolean archives)
+    {
+        Vector<File> selected = new Vector<File>();
+        for (File f : listing)
+        {
+            if (MessageArchive.isArchive(f) == archives)
+            {
+                selected.add(f);
+            }
+        }
+        return selected.toArray(new File[selected.size()]);
+    }
+
+
+    // Read the words of a message that are used for classification (converted, with 4 or more characters)
+    static Vector<String> readWords(File f)
+    throws IOException
+    {
+        Vector<String> words = new Vector<String>();
+
+        if (cache != null)                              /// the converted words of the message from the cache
+        {
+            for (String[] tokens : cache.lines(f))
             {
-                StringTokenizer st = new StringTokenizer(line);         // parse it into words
+                for (String next : tokens)
+                {
+                    if (next.length() >= 4)
+                    {
+                        words.add(next);
+                    }
+                }
+            }
+            return words;
+        }
+
+        return readWords(new FileInputStream( f ));
+    }
+
+    // Read the words of a message that has been read into memory or is still being read
+    static Vector<String> readWords(InputStream i_s)
+    throws IOException
+    {
+        Vector<String> words = new Vector<String>();
+        MimeReader in = new MimeReader(new InputStreamReader(i_s));   /// only the text of the message
+        String line;
+
+        while ((line = in.readLine()) != null)                      // read a line
+        {
+            StringTokenizer st = new StringTokenizer(line);         // parse it into words
 
-                while (st.hasMoreTokens())                  // while there are still words left..
+            while (st.hasMoreTokens())                  // while there are still words left..
+            {
+                String next = toAlpha(st.nextToken());
+                if (next.length() >= 4)             /// and they have 4 or more characters
                 {
-					String next = toAlpha(st.nextToken());
-					if (next.length() >= 4)				/// and they have 4 or more characters
-					{
-						addWord(next, type);        // add them to the vocabulary
-					}										/// converted and all
-				}
+                    words.add(next);
+                }
+            }
+        }
+
+        in.close();
+        return words;
+    }
+
+    // Read the messages from the tokens in the cache instead of parsing them, null to parse every message.
+    // Early exit classification (see setEarlyExit()) still reads the messages themselves.
+    static void setCache(CorpusCache corpusCache)
+    {
+        cache = corpusCache;
+    }
+
+    // Read the messages with readers threads and tokenize them on as many threads as there are processors,
+    // 0 to read and tokenize them one by one on the calling thread. The pipeline isn't used with the cache
+    // (which reads no messages) or with early exit classification (which reads only part of the messages).
+    static void setPipeline(int readers)
+    {
+        int workers = Runtime.getRuntime().availableProcessors();
+        pipeline = readers > 0 ? new MessagePipeline(readers, workers, 4 * workers) : null;
+    }
+
+    // Give copies and near copies (within maxDistance bits of SimHash) of one of the last capacity classified
+    // messages the same outcome without scoring them, capacity 0 to score every message. Early exit
+    // classification doesn't use the cache, it doesn't have all the words of a message.
+    static void setDuplicateCache(int capacity, int maxDistance)
+    {
+        duplicates = capacity > 0 ? new DuplicateCache(capacity, maxDistance) : null;
+    }
+
+    private static boolean pipelined()
+    {
+        return pipeline != null && cache == null;
+    }
+
+/// ------------ Online learning ------------------
+
+    // Add a single message to the model, e.g. a message a user reported as spam. The model is published
+    // right away, or within the publish interval (see setPublishInterval()).
+    static void learn(File f, MessageType type)
+    throws IOException
+    {
+        Vector<String> words = readWords(f);           /// read the file before locking out the other trainers
+
+        lock.lock();
+        try {
+            learn(model, words, type);
+            if (changes != null)
+            {
+                changes.add(new Change(words, type, true));
+            }
+        } finally {
+            lock.unlock();
+        }
+        publishSoon();
+    }
+
+    private static void learn(Model m, Vector<String> words, MessageType type)
+    {
+        lock.lock();
+        try {
+            for (String word : words)
+            {
+                addWord(m, word, type);
             }
 
-            in.close();
             if (type == MessageType.NORMAL){		/// increment the number of messages
-                ++normalCnt;
+                ++m.normalCnt;
             } else {
-                ++spamCnt;
+                ++m.spamCnt;
+            }
+
+            if (vocabLimit > 0 && m.vocab.size() > vocabLimit)
+            {
+                evict(m);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Take a message that was learned as the given type out of the model again. A message a user
+    // reclassifies is moved with unlearn(f, SPAM) followed by learn(f, NORMAL) (or the other way around).
+    static void unlearn(File f, MessageType type)
+    throws IOException
+    {
+        Vector<String> words = readWords(f);
+
+        lock.lock();
+        try {
+            unlearn(model, words, type);
+            if (changes != null)
+            {
+                changes.add(new Change(words, type, false));
+            }
+        } finally {
+            lock.unlock();
+        }
+        publishSoon();
+    }
+
+    private static void unlearn(Model m, Vector<String> words, MessageType type)
+    {
+        for (String word : words)
+        {
+            removeWord(m, word, type);
+        }
+
+        if (type == MessageType.NORMAL){
+            m.normalCnt = Math.max(m.normalCnt - 1, 0);
+        } else {
+            m.spamCnt = Math.max(m.spamCnt - 1, 0);
+        }
+    }
+
+    // Publish the working model to the classifiers as a snapshot, if it changed since the last one.
+    // Classifications that already started keep the snapshot they have.
+    static void publish()
+    {
+        lock.lock();                                   /// a snapshot of an older model is never set after a newer one
+        try {
+            if (snapshot.get().version() != modelVersion)
+            {
+                snapshot.set(takeSnapshot());
             }
+            lastPublish = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Publish after an online change: right away if the last snapshot is older than the publish interval,
+    // otherwise once it is. The changes made until then are published together, in one snapshot.
+    private static void publishSoon()
+    {
+        if (!publishDue.compareAndSet(false, true))
+        {
+            return;                                     /// a publish is already scheduled, it takes this change along
+        }
+
+        long wait;
+        lock.lock();
+        try {
+            wait = publishInterval - (System.nanoTime() - lastPublish) / 1000000;
+            if (wait > 0)
+            {
+                if (publisher == null)
+                {
+                    publisher = new Timer("publish", true);
+                }
+                publisher.schedule(new TimerTask() {
+                    public void run()
+                    {
+                        publishDue.set(false);
+                        publish();
+                    }
+                }, wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (wait <= 0)
+        {
+            publishDue.set(false);
+            publish();
+        }
+    }
+
+    // Publish online changes at most every interval ms, 0 to publish every change right away. A snapshot
+    // copies the whole model, so a burst of learn() and unlearn() calls is cheaper with an interval.
+    static void setPublishInterval(long interval)
+    {
+        publishInterval = interval;
+    }
+
+    private static ModelSnapshot takeSnapshot()
+    {
+        lock.lock();
+        try {
+            if (model.hashed != null)
+            {
+                return new ModelSnapshot(modelVersion, getPriorNormal(), getPriorSpam(), new HashedCounts(model.hashed),
+                    getNormalWordCount(), getSpamWordCount(), EPSILON/(getNormalWordCount()+getSpamWordCount()));
+            }
+
+            HashMap<String, double[]> likelihoods = new HashMap<String, double[]>(model.vocab.size() * 4 / 3 + 1);
+            for (String word : model.vocab.keySet())
+            {
+                likelihoods.put(word, new double[] { getNormalLikelihood(word), getSpamLikelihood(word) });
+            }
+            return new ModelSnapshot(modelVersion, getPriorNormal(), getPriorSpam(), likelihoods);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Train a new model from the regular and spam messages in dir_location on a background thread. The new
+    // model is built apart from the working model, which the classifiers and online learning keep using.
+    // When it is complete the messages learned and unlearned online in the meantime are applied to it too,
+    // and it replaces the working model and is published. If reading fails the working model stays.
+    // Returns the thread, or null if a retrain is already running.
+    static Thread retrain(final File dir_location)
+    {
+        if (!retraining.compareAndSet(false, true))
+        {
+            return null;
+        }
+
+        final Model next;
+        lock.lock();                                   /// online changes from now on are applied to the next model too
+        try {
+            next = model.empty();
+            changes = new Vector<Change>();
+        } finally {
+            lock.unlock();
+        }
+
+        Thread trainer = new Thread("retrain " + dir_location) {
+            public void run()
+            {
+                try {
+                    File[] dir_listing = dir_location.listFiles();
+                    if (dir_listing == null || dir_listing.length != 2)
+                    {
+                        System.out.println("- Error: " + dir_location + " does not contain two subdirectories.\n");
+                        return;
+                    }
+
+                    train(next, dir_listing[0].listFiles(), MessageType.NORMAL);
+                    train(next, dir_listing[1].listFiles(), MessageType.SPAM);
+
+                    lock.lock();
+                    try {
+                        for (Change change : changes)
+                        {
+                            if (change.learned)
+                            {
+                                learn(next, change.words, change.type);
+                            }
+                            else
+                            {
+                                unlearn(next, change.words, change.type);
+                            }
+                        }
+                        model = next;
+                        ++modelVersion;
+                        publish();
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (IOException e) {
+                    System.out.println("- Error: an error occured while retraining: " + e);
+                } finally {
+                    lock.lock();
+                    try {
+                        changes = null;
+                    } finally {
+                        lock.unlock();
+                    }
+                    retraining.set(false);
+                }
+            }
+        };
+        trainer.setDaemon(true);
+        trainer.start();
+        return trainer;
+    }
+
+    // Limit the vocabulary to at most limit words, 0 for no limit. When the vocabulary grows beyond the
+    // limit the least frequent words are evicted, down to 90% of the limit so this doesn't happen for every message.
+    static void setVocabLimit(int limit)
+    {
+        lock.lock();
+        try {
+            vocabLimit = limit;
+            if (vocabLimit > 0 && model.vocab.size() > vocabLimit)
+            {
+                evict(model);
+            }
+        } finally {
+            lock.unlock();
+        }
+        publish();
+    }
+
+    // Count the words in a table of 2^bits buckets instead of the vocabulary (the hashing trick), 0 for the
+    // vocabulary. The memory is fixed (8 bytes per bucket), words in the same bucket share their counts.
+    // The model is emptied, so this is called before any messages are read.
+    static void setHashBits(int bits)
+    {
+        lock.lock();
+        try {
+            model = new Model(bits > 0 ? new HashedCounts(bits) : null);
+            ++modelVersion;
+        } finally {
+            lock.unlock();
+        }
+        publish();
+    }
+
+    private static void evict(Model m)
+    {
+        ArrayList<Map.Entry<String, Multiple_Counter>> entries = new ArrayList<Map.Entry<String, Multiple_Counter>>(m.vocab.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Multiple_Counter>>() {
+            public int compare(Map.Entry<String, Multiple_Counter> a, Map.Entry<String, Multiple_Counter> b)
+            {
+                return a.getValue().total() - b.getValue().total();
+            }
+        });
+
+        if (m == model)                                 /// the next model of a retrain isn't published yet
+        {
+            ++modelVersion;
+        }
+        int evicted = entries.size() - vocabLimit * 9 / 10;
+        for (int i = 0; i < evicted; ++i)
+        {
+            m.vocab.remove(entries.get(i).getKey());
         }
     }
     
@@ -174,17 +745,17 @@ public class Bayespam
     
     private static double getNormalCount()		/// give number of count messages
     {
-    	return normalCnt;
+    	return model.normalCnt;
     }
     
     private static double getSpamCount()		/// give number of spam messages
     {
-    	return spamCnt;
+    	return model.spamCnt;
     }
     
     private static double getTotalCount()		/// give total number of messages
     {
-    	return normalCnt;
+    	return model.normalCnt;
     }
     
     private static double getPriorNormal()
@@ -201,24 +772,37 @@ public class Bayespam
     
     private static double getNormalWordCount()
     {
-    	return normalWordCnt;
+    	return model.normalWordCnt;
     }
     
     private static double getSpamWordCount()
     {
-    	return spamWordCnt;
+    	return model.spamWordCnt;
     }
     
     private static double getNormalLikelihood(String word)
     { /// given a word compute its class conditional likelihood P(wj | regular)
-    	Multiple_Counter counter  = vocab.get(word);
-    	return Math.log(zeroSafeguard(counter.counter_regular / getNormalWordCount()));
+    	return Math.log(zeroSafeguard(getNormalCount(word) / getNormalWordCount()));
     }
     
     private static double getSpamLikelihood(String word)
     {
-    	Multiple_Counter counter  = vocab.get(word);
-    	return Math.log(zeroSafeguard(counter.counter_spam / getSpamWordCount()));
+    	return Math.log(zeroSafeguard(getSpamCount(word) / getSpamWordCount()));
+    }
+    
+    private static double getNormalCount(String word)
+    { /// the number of times the word occurs in regular messages, in the vocabulary or its bucket
+    	return model.hashed != null ? model.hashed.regularCount(word) : model.vocab.get(word).counter_regular;
+    }
+    
+    private static double getSpamCount(String word)
+    {
+    	return model.hashed != null ? model.hashed.spamCount(word) : model.vocab.get(word).counter_spam;
+    }
+    
+    private static boolean isKnown(String word)
+    { /// in hashing mode a word is known if its bucket has been counted
+    	return model.hashed != null ? model.hashed.contains(word) : model.vocab.containsKey(word);
     }
     
     private static double zeroSafeguard(double d)
@@ -232,33 +816,108 @@ public class Bayespam
 /// ----------------------- Section 3 ------------------------
 /// ----------------------- 3.1 ----------------------
    
-    private static MessageType classifyMsg(File f) throws IOException
+    static MessageType classifyMsg(File f) throws IOException
     {
-    	FileInputStream i_s = new FileInputStream( f );
-        BufferedReader in = new BufferedReader(new InputStreamReader(i_s));
-        String line;
+        if (earlyExit || maxBytes > 0)
+        {
+            return classifyEarly(f);
+        }
         
-        double pNormal = getPriorNormal();
-        double pSpam = getPriorSpam();
+        return classify(readWords(f));                 /// words with 4 or more characters
+    }
+    
+    private static MessageType classify(Vector<String> words)
+    {
+        double pNormal;
+        double pSpam;
+        long fingerprint = duplicates != null ? DuplicateCache.simHash(words) : 0;
+        ModelSnapshot model = snapshot.get();          /// no locking: the snapshot doesn't change
+        int version = model.version();
         
-        while ((line = in.readLine()) != null)                      // read a line
+        if (duplicates != null)                        /// a copy of a message that was scored with this model
+        {
+            DuplicateCache.Entry duplicate = duplicates.lookup(fingerprint, version, words.size());
+            if (duplicate != null)
+            {
+                return duplicate.type();
+            }
+        }
+        
+        pNormal = model.priorNormal();
+        pSpam = model.priorSpam();
+        
+        for (String next : words)
+        {
+            if (model.isKnown(next))                   /// and the word is in the vocabulary
+            {
+                pNormal += model.normalLikelihood(next);
+                pSpam += model.spamLikelihood(next);
+            }
+        }
+        
+        ///System.out.println("P(normal): " + pNormal + " | P(spam): " + pSpam);
+        
+        MessageType type = pNormal > pSpam ? MessageType.NORMAL : MessageType.SPAM;
+        if (duplicates != null)
+        {
+            duplicates.put(fingerprint, type, pNormal - pSpam, version);
+        }
+        return type;
+    }
+    
+    // Classify a message reading it line by line. With earlyExit reading stops as soon as the rest of the
+    // message can't change the outcome any more: every counted word has 4 or more letters and a separator,
+    // so the remaining bytes hold at most (remaining + 1) / 5 words, each changing pNormal - pSpam by at most
+    // the maxDelta() of the model. Bytes are counted as chars, which can only overestimate what remains. With maxBytes
+    // reading also stops after that many bytes, the outcome is then decided by the part that was read.
+    private static MessageType classifyEarly(File f) throws IOException
+    {
+        FileInputStream i_s = new FileInputStream( f );
+        MimeReader in = new MimeReader(new InputStreamReader(i_s));   /// only the text of the message
+        String line;
+        long length = f.length();
+        long read = 0;
+        boolean decided = false;
+        ModelSnapshot model = snapshot.get();          /// the whole message is scored with one model
+        double pNormal = model.priorNormal();
+        double pSpam = model.priorSpam();
+        double delta = model.maxDelta();
+        
+        while (!decided && (line = in.readLine()) != null)          // read a line
         {
+            read = in.charsRead();                                 /// including the skipped parts
             StringTokenizer st = new StringTokenizer(line);         // parse it into words
-
-            while (st.hasMoreTokens())                  // while there are still words left..
+            
+            while (st.hasMoreTokens())
+            {
+                String next = toAlpha(st.nextToken());
+                if (next.length() >= 4 && model.isKnown(next))
+                {
+                    pNormal += model.normalLikelihood(next);
+                    pSpam += model.spamLikelihood(next);
+                }
+            }
+            
+            long remainingWords = (Math.max(length - read, 0) + 1) / 5;
+            if (maxBytes > 0 && read >= maxBytes)
+            {
+                decided = true;
+            }
+            else if (earlyExit && remainingWords > 0 && Math.abs(pNormal - pSpam) > delta * remainingWords)
             {
-				String next = toAlpha(st.nextToken());
-				if (next.length() >= 4 && vocab.containsKey(next))	/// and they have 4 or more characters
-				{													/// and the word is in the vocabulary
-					pNormal += getNormalLikelihood(next);
-					pSpam += getSpamLikelihood(next);
-				}
-			}
+                decided = true;
+            }
         }
         
         in.close();
         
-        ///System.out.println("P(normal): " + pNormal + " | P(spam): " + pSpam);
+        classified.incrementAndGet();
+        bytesRead.addAndGet(Math.min(read, length));
+        bytesTotal.addAndGet(length);
+        if (decided)
+        {
+            stopped.incrementAndGet();
+        }
         
         if (pNormal > pSpam)
         	return MessageType.NORMAL;
@@ -266,21 +925,65 @@ public class Bayespam
         	return MessageType.SPAM;
     }
     
+    // Stop reading a message once its outcome can't change any more (enabled), and/or after maxBytes bytes (0 for no limit)
+    static void setEarlyExit(boolean enabled, long maxBytes)
+    {
+        earlyExit = enabled;
+        Bayespam.maxBytes = maxBytes;
+    }
+    
 /// ---------------- 3.2 ---------------------
     
+    // Classify the messages, with the pipeline if there is one
+    private static MessageType[] classifyAll(File[] listing) throws IOException
+    {
+        File[] messages = select(listing, false);
+        final MessageType[] outcomes = new MessageType[messages.length];
+        
+        if (pipelined() && !earlyExit && maxBytes == 0)
+        {
+            pipeline.run(messages, new MessagePipeline.Handler() {
+                public void handle(int index, InputStream message) throws IOException
+                {
+                    outcomes[index] = classify(readWords(message));
+                }
+            });
+        }
+        else
+        {
+            for (int i = 0; i < messages.length; ++i)
+            {
+                outcomes[i] = classifyMsg(messages[i]);
+            }
+        }
+        
+        ///The messages of the archives follow the message files
+        final Vector<MessageType> all = new Vector<MessageType>(Arrays.asList(outcomes));
+        for (File archive : select(listing, true))
+        {
+            MessageArchive.read(archive, new MessageArchive.Handler() {
+                public void handle(InputStream message) throws IOException
+                {
+                    all.add(classify(readWords(message)));
+                }
+            });
+        }
+        return all.toArray(new MessageType[all.size()]);
+    }
+    
     private static void testMessages() throws IOException
     {
     	/// Start with regular messages
-    	File[] messages = listing_regular;
+    	MessageType[] outcomes = classifyAll(listing_regular);
     	MessageType outcome;
     	
     	int normalCorrect = 0, spamCorrect = 0;
     	int normalTotal, spamTotal;
     	int idx;
     	
-    	for (idx = 0; idx < messages.length; ++idx)
+    	for (idx = 0; idx < outcomes.length; ++idx)
     	{
-    		outcome = classifyMsg(messages[idx]);
+    		outcome = outcomes[idx];
     		System.out.println("Message Regular #" + (idx+1) + ": " + outcome);
     		if (outcome == MessageType.NORMAL)
     			++normalCorrect;
@@ -288,12 +991,12 @@ public class Bayespam
     	normalTotal = idx;
     	
     	/// Switch to spam meessages
-    	messages = listing_spam;
+    	outcomes = classifyAll(listing_spam);
     	
-    	for (idx = 0; idx < messages.length; ++idx)
+    	for (idx = 0; idx < outcomes.length; ++idx)
     	{
-    		outcome = classifyMsg(messages[idx]);
-    		System.out.println("Message Spam #" + (idx+1) + ": " + classifyMsg(messages[idx]));
+    		outcome = outcomes[idx];
+    		System.out.println("Message Spam #" + (idx+1) + ": " + outcome);
     		if (outcome == MessageType.SPAM)
     			++spamCorrect;
     	}
@@ -307,6 +1010,12 @@ public class Bayespam
     			+ "\t\t| Normal | Spam\n"
     			+ "Actual | Normal | "+ normalCorrect +"\t | "+ (normalTotal-normalCorrect) +"\n"
     			+ "       | Spam\t| "+ (spamTotal-spamCorrect) +"\t | "+ spamCorrect +"\n");
+    	
+    	if (classified.get() > 0)
+    	{
+    		System.out.println("Early exit: " + stopped.get() + " of " + classified.get() + " messages, read "
+    				+ bytesRead.get() + " of " + bytesTotal.get() + " bytes");
+    	}
     }
     
 /// ---------------- MAIN ---------------------------
@@ -326,6 +1035,31 @@ public class Bayespam
 
         // Initialize the regular and spam lists
         listDirs(dir_location);
+        
+        ///Optional cap on the vocabulary size, e.g. -Dbayespam.vocab=50000
+        setVocabLimit(Integer.getInteger("bayespam.vocab", 0));
+        
+        ///Or count the words in a fixed table of 2^bits buckets, e.g. -Dbayespam.hash=16
+        setHashBits(Integer.getInteger("bayespam.hash", 0));
+        
+        ///Stop reading test messages once they are decided (-Dbayespam.earlyexit=true) and/or after -Dbayespam.maxbytes=<n>
+        setEarlyExit(Boolean.getBoolean("bayespam.earlyexit"), Long.getLong("bayespam.maxbytes", 0));
+        
+        ///Keep the tokenized messages in a cache file, e.g. -Dbayespam.cache=corpus.cache
+        String cacheFile = System.getProperty("bayespam.cache");
+        if (cacheFile != null)
+        {
+            setCache(new CorpusCache(new File(cacheFile)));
+        }
+        
+        ///Read the messages on reader threads while others tokenize them, e.g. -Dbayespam.readers=4
+        setPipeline(Integer.getInteger("bayespam.readers", 0));
+        
+        ///Publish messages learned online at most every -Dbayespam.publish=<ms> ms, 0 to publish every one
+        setPublishInterval(Long.getLong("bayespam.publish", 100));
+        
+        ///Don't score copies of recent messages again, e.g. -Dbayespam.dedup=10000 -Dbayespam.dedup.distance=3
+        setDuplicateCache(Integer.getInteger("bayespam.dedup", 0), Integer.getInteger("bayespam.dedup.distance", 3));
 
         // Read the e-mail messages
         readMessages(MessageType.NORMAL);
@@ -333,8 +1067,8 @@ public class Bayespam
 
         // Print out the hash table
         printVocab();
-        System.out.println("Total messages | Normal: " + normalCnt + " Spam: " + spamCnt);
-        System.out.println("Total words | Normal: " + normalWordCnt + " Spam: " + spamWordCnt);
+        System.out.println("Total messages | Normal: " + model.normalCnt + " Spam: " + model.spamCnt);
+        System.out.println("Total words | Normal: " + model.normalWordCnt + " Spam: " + model.spamWordCnt);
         
         
         ///reset the directory to the test set.
@@ -350,8 +1084,36 @@ public class Bayespam
         
         /// From now on listing_regular and "_spam refer to the test set!
         
+        ///Optionally retrain from another directory while the test messages are classified, e.g. -Dbayespam.retrain=train2
+        String retrainDir = System.getProperty("bayespam.retrain");
+        Thread trainer = retrainDir != null ? retrain(new File(retrainDir)) : null;
+        
         testMessages();
         
+        if (trainer != null)
+        {
+            try {
+                trainer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Retrained from " + retrainDir + " | model version: " + snapshot.get().version());
+        }
+        
+        if (cache != null)
+        {
+            cache.save();
+            System.out.println(cache.report());
+        }
+        if (pipelined())
+        {
+            System.out.println(pipeline.report());
+        }
+        if (duplicates != null)
+        {
+            System.out.println(duplicates.report());
+        }
+        
         // Now all students must continue from here:
         //
         // 1) A priori class probabilities must be computed from the number of regular and spam messages
@@ -1,12 +1,11 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.StringTokenizer;
+import java.util.Vector;
 
 public class BigramBayespam {
 	// This defines the two types of messages we have.
@@ -55,8 +54,32 @@ public class BigramBayespam {
     private static final int MIN_BIGRAM_LENGTH = 9;   ///NOTE: includes a space!
     private static final int MIN_BIGRAM_OCCURANCE = 2;  ///Any bigram occurring (across normal AND spam!) less will get pruned. 
     
+    ///In hashing mode the bigrams are counted in this table instead of vocab, null otherwise (see setHashBits())
+    private static HashedCounts hashed;
+    
+    ///The tokenized messages, null to parse every message when it is read (see CorpusCache)
+    private static CorpusCache cache;
+
+    ///Reads the messages on reader threads and tokenizes them on worker threads, null to read them one by one
+    private static MessagePipeline pipeline;
+    
     // Add a word to the vocabulary
-    private static void addWord(String word, MessageType type)
+    static void addWord(String word, MessageType type)
+    {
+        if ( hashed != null ){                           // in hashing mode only the bucket of the bigram is counted
+            hashed.add(word, type == MessageType.SPAM);
+        } else {
+            addToVocab(word, type);
+        }
+        
+        if (type == MessageType.NORMAL){
+            ++normalWordCnt;
+        } else {
+            ++spamWordCnt;
+        }
+    }
+
+    private static void addToVocab(String word, MessageType type)
     {
         Multiple_Counter counter = new Multiple_Counter();
 
@@ -66,17 +89,35 @@ public class BigramBayespam {
         counter.incrementCounter(type);                 // increase the counter appropriately
 
         vocab.put(word, counter);                       // put the word with its counter into the hashtable
-        
-        if (type == MessageType.NORMAL){
-            ++normalWordCnt;
-        } else {
-            ++spamWordCnt;
+    }
+
+
+    // Count the bigrams in a table of 2^bits buckets instead of the vocabulary (the hashing trick), 0 for the
+    // vocabulary. The memory is fixed (8 bytes per bucket), bigrams in the same bucket share their counts.
+    // The model is emptied, so this is called before any messages are read.
+    static void setHashBits(int bits)
+    {
+        hashed = bits > 0 ? new HashedCounts(bits) : null;
+        reset();
+    }
+
+
+    // Empty the vocabulary and the counters, so messages can be read again (used by the benchmarks)
+    static void reset()
+    {
+        vocab.clear();
+        if ( hashed != null ){
+            hashed.clear();
         }
+        spamCnt = 0;
+        normalCnt = 0;
+        spamWordCnt = 0;
+        normalWordCnt = 0;
     }
 
 
     // List the regular and spam messages
-    private static void listDirs(File dir_location)
+    static void listDirs(File dir_location)
     {
         // List all files in the directory passed
         File[] dir_listing = dir_location.listFiles();
@@ -96,6 +137,11 @@ public class BigramBayespam {
     // Print the current content of the vocabulary
     private static void printVocab()
     {
+        if ( hashed != null ){                           // there are no bigrams to print in hashing mode
+            System.out.println(hashed.report());
+            return;
+        }
+
         Multiple_Counter counter = new Multiple_Counter();
 
         for (Enumeration<String> e = vocab.keys() ; e.hasMoreElements() ;)
@@ -115,7 +161,7 @@ public class BigramBayespam {
         }
     }
     
-    private static String toAlpha(String s)
+    static String toAlpha(String s)
     ///Filters out all non-letters and lowercases it.
     {
     	StringBuffer alpha = new StringBuffer();
@@ -132,8 +178,37 @@ public class BigramBayespam {
     }
 
 
+    // The converted words of the lines of a message, from the cache if there is one
+    private static String[][] lines(File f)
+    throws IOException
+    {
+        return cache != null ? cache.lines(f) : CorpusCache.tokenize(f);
+    }
+
+
+    static void setCache(CorpusCache corpusCache)
+    {
+        cache = corpusCache;
+    }
+
+
+    // Read the messages with readers threads and tokenize them on as many threads as there are processors,
+    // 0 to read them one by one. Not used with the cache, which reads no messages.
+    static void setPipeline(int readers)
+    {
+        int workers = Runtime.getRuntime().availableProcessors();
+        pipeline = readers > 0 ? new MessagePipeline(readers, workers, 4 * workers) : null;
+    }
+
+
+    private static boolean pipelined()
+    {
+        return pipeline != null && cache == null;
+    }
+
+
     // Read the words from messages and add them to your vocabulary. The boolean type determines whether the messages are regular or not  
-    private static void readMessages(MessageType type)
+    static void readMessages(MessageType type)
     throws IOException
     {
         File[] messages = new File[0];
@@ -144,38 +219,84 @@ public class BigramBayespam {
             messages = listing_spam;
         }
         
-        for (int i = 0; i < messages.length; ++i)
+        final MessageType messageType = type;
+        File[] archives = select(messages, true);
+        messages = select(messages, false);
+
+        if (pipelined())
         {
-            FileInputStream i_s = new FileInputStream( messages[i] );
-            BufferedReader in = new BufferedReader(new InputStreamReader(i_s));
-            String line;
-            String old = ""; /// old represents the previous token, is initialised to the first
-            
-            while ((line = in.readLine()) != null)                      // read a line
+            pipeline.run(messages, new MessagePipeline.Handler() {
+                public void handle(int index, InputStream message) throws IOException
+                {
+                    count(CorpusCache.tokenize(message), messageType);
+                }
+            });
+        }
+        else
+        {
+            for (int i = 0; i < messages.length; ++i)
             {
-                StringTokenizer st = new StringTokenizer(line);         // parse it into words
+                count(lines(messages[i]), type);
+            }
+        }
 
-                while (st.hasMoreTokens())                  // while there are still words left..
+        for (File archive : archives)                   /// the messages of mbox, zip and gzip files
+        {
+            MessageArchive.read(archive, new MessageArchive.Handler() {
+                public void handle(InputStream message) throws IOException
                 {
-                	if (old == "")
-                		old = toAlpha(st.nextToken());		///make sure to grab the first token (in all lines) as a different case!
-                	
-					String next = toAlpha(st.nextToken());
-					if (old.length()+next.length() >= MIN_BIGRAM_LENGTH-1)	/// and both words have 4 or more characters
-					{														/// The -1 corrects for the space.
-						addWord(old + " " + next, type);        // add them to the vocabulary
-					}										/// converted and all
-					old = next;
-				}
-            }
+                    count(CorpusCache.tokenize(message), messageType);
+                }
+            });
+        }
+    }
 
-            in.close();
-            if (type == MessageType.NORMAL){		/// increment the number of messages
-                ++normalCnt;
-            } else {
-                ++spamCnt;
+
+    // The archives (see MessageArchive) or the message files of a listing
+    private static File[] select(File[] listing, boolean archives)
+    {
+        Vector<File> selected = new Vector<File>();
+        for (File f : listing)
+        {
+            if (MessageArchive.isArchive(f) == archives)
+            {
+                selected.add(f);
             }
         }
+        return selected.toArray(new File[selected.size()]);
+    }
+
+
+    // Add the bigrams of a message to the vocabulary, one message at a time when they are tokenized concurrently
+    private static synchronized void count(String[][] lines, MessageType type)
+    {
+        String old = ""; /// old represents the previous token, is initialised to the first
+        
+        for (String[] tokens : lines)                                  // the converted words of a line
+        {
+            int t = 0;
+
+            while (t < tokens.length)                   // while there are still words left..
+            {
+            	if (old == "")
+            		old = tokens[t++];		///make sure to grab the first token (in all lines) as a different case!
+            	if (t == tokens.length)
+            		break;				///a line with a single word
+            	
+				String next = tokens[t++];
+				if (old.length()+next.length() >= MIN_BIGRAM_LENGTH-1)	/// and both words have 4 or more characters
+				{														/// The -1 corrects for the space.
+					addWord(old + " " + next, type);        // add them to the vocabulary
+				}										/// converted and all
+				old = next;
+			}
+        }
+
+        if (type == MessageType.NORMAL){		/// increment the number of messages
+            ++normalCnt;
+        } else {
+            ++spamCnt;
+        }
     }
     
 /// ------------ Section 2 ------------------------
@@ -220,14 +341,27 @@ public class BigramBayespam {
     
     private static double getNormalLikelihood(String word)
     { /// given a word compute its class conditional likelihood P(wj | regular)
-    	Multiple_Counter counter  = vocab.get(word);
-    	return Math.log(zeroSafeguard(counter.counter_regular / getNormalWordCount()));
+    	return Math.log(zeroSafeguard(getNormalCount(word) / getNormalWordCount()));
     }
     
     private static double getSpamLikelihood(String word)
     {
-    	Multiple_Counter counter  = vocab.get(word);
-    	return Math.log(zeroSafeguard(counter.counter_spam / getSpamWordCount()));
+    	return Math.log(zeroSafeguard(getSpamCount(word) / getSpamWordCount()));
+    }
+    
+    private static double getNormalCount(String word)
+    { /// the number of times the bigram occurs in regular messages, in the vocabulary or its bucket
+    	return hashed != null ? hashed.regularCount(word) : vocab.get(word).counter_regular;
+    }
+    
+    private static double getSpamCount(String word)
+    {
+    	return hashed != null ? hashed.spamCount(word) : vocab.get(word).counter_spam;
+    }
+    
+    private static boolean isKnown(String word)
+    { /// in hashing mode a bigram is known if its bucket has been counted
+    	return hashed != null ? hashed.contains(word) : vocab.containsKey(word);
     }
     
     private static double zeroSafeguard(double d)
@@ -242,19 +376,56 @@ public class BigramBayespam {
     
 /// ---------------- 3.2 ---------------------
     
+    // Classify the messages, with the pipeline if there is one
+    private static MessageType[] classifyAll(File[] listing) throws IOException
+    {
+        File[] messages = select(listing, false);
+        final MessageType[] outcomes = new MessageType[messages.length];
+        
+        if (pipelined())
+        {
+            pipeline.run(messages, new MessagePipeline.Handler() {
+                public void handle(int index, InputStream message) throws IOException
+                {
+                    outcomes[index] = classify(CorpusCache.tokenize(message));
+                }
+            });
+        }
+        else
+        {
+            for (int i = 0; i < messages.length; ++i)
+            {
+                outcomes[i] = classifyMsg(messages[i]);
+            }
+        }
+        
+        ///The messages of the archives follow the message files
+        final Vector<MessageType> all = new Vector<MessageType>(Arrays.asList(outcomes));
+        for (File archive : select(listing, true))
+        {
+            MessageArchive.read(archive, new MessageArchive.Handler() {
+                public void handle(InputStream message) throws IOException
+                {
+                    all.add(classify(CorpusCache.tokenize(message)));
+                }
+            });
+        }
+        return all.toArray(new MessageType[all.size()]);
+    }
+    
     private static void testMessages() throws IOException
     {
     	/// Start with regular messages
-    	File[] messages = listing_regular;
+    	MessageType[] outcomes = classifyAll(listing_regular);
     	MessageType outcome;
     	
     	int normalCorrect = 0, spamCorrect = 0;
     	int normalTotal, spamTotal;
     	int idx;
     	
-    	for (idx = 0; idx < messages.length; ++idx)
+    	for (idx = 0; idx < outcomes.length; ++idx)
     	{
-    		outcome = classifyMsg(messages[idx]);
+    		outcome = outcomes[idx];
     		System.out.println("Message Regular #" + (idx+1) + ": " + outcome);
     		if (outcome == MessageType.NORMAL)
     			++normalCorrect;
@@ -262,12 +433,12 @@ public class BigramBayespam {
     	normalTotal = idx;
     	
     	/// Switch to spam meessages
-    	messages = listing_spam;
+    	outcomes = classifyAll(listing_spam);
     	
-    	for (idx = 0; idx < messages.length; ++idx)
+    	for (idx = 0; idx < outcomes.length; ++idx)
     	{
-    		outcome = classifyMsg(messages[idx]);
-    		System.out.println("Message Spam #" + (idx+1) + ": " + classifyMsg(messages[idx]));
+    		outcome = outcomes[idx];
+    		System.out.println("Message Spam #" + (idx+1) + ": " + outcome);
     		if (outcome == MessageType.SPAM)
     			++spamCorrect;
     	}
@@ -285,8 +456,14 @@ public class BigramBayespam {
     
 /// ---------------- Section 4 ------------------------
     
-    private static void pruneVocab() /// Now that all bigrams have been counted, remove those that don't occur enough
+    static void pruneVocab() /// Now that all bigrams have been counted, remove those that don't occur enough
     {
+    	if (hashed != null)		/// in hashing mode the buckets that aren't counted enough are emptied
+    	{
+    		hashed.prune(MIN_BIGRAM_OCCURANCE);
+    		return;
+    	}
+    	
     	Enumeration<String> keys = vocab.keys();
     	while (keys.hasMoreElements())
     	{
@@ -297,31 +474,36 @@ public class BigramBayespam {
     	}
     }
     
-    private static MessageType classifyMsg(File f) throws IOException
+    static MessageType classifyMsg(File f) throws IOException
+    {
+        return classify(lines(f));
+    }
+    
+    // Classify the converted words of the lines of a message, the vocabulary is only read
+    private static MessageType classify(String[][] lines)
     {
-    	FileInputStream i_s = new FileInputStream( f );
-        BufferedReader in = new BufferedReader(new InputStreamReader(i_s));
-        String line;
         String old = ""; /// old represents the previous token, is initialised to the first
         
         double pNormal = getPriorNormal();
         double pSpam = getPriorSpam();
         
-        while ((line = in.readLine()) != null)                      // read a line
+        for (String[] tokens : lines)                                // the converted words of a line
         {
-            StringTokenizer st = new StringTokenizer(line);         // parse it into words
+            int t = 0;
             
-            if (st.hasMoreTokens())
-            	old = toAlpha(st.nextToken());	/// old represents the previous token, is initialised to the first
+            if (t < tokens.length)
+            	old = tokens[t++];	/// old represents the previous token, is initialised to the first
 
-            while (st.hasMoreTokens())                  // while there are still words left..
+            while (t < tokens.length)                   // while there are still words left..
             {
             	if (old == "")
-            		old = toAlpha(st.nextToken());
+            		old = tokens[t++];
+            	if (t == tokens.length)
+            		break;
             	
-				String next = toAlpha(st.nextToken());
+				String next = tokens[t++];
 				String cat = old + " " + next;			///the concatenated strings.
-				if (cat.length() >= MIN_BIGRAM_LENGTH && vocab.containsKey(cat))	/// and both words have 4 or more characters
+				if (cat.length() >= MIN_BIGRAM_LENGTH && isKnown(cat))	/// and both words have 4 or more characters
 				{														/// The -1 corrects for the space.
 					pNormal += getNormalLikelihood(cat);
 					pSpam += getSpamLikelihood(cat);
@@ -330,8 +512,6 @@ public class BigramBayespam {
 			}
         }
         
-        in.close();
-        
         if (pNormal > pSpam)
         	return MessageType.NORMAL;
         else
@@ -354,6 +534,19 @@ public class BigramBayespam {
 
         // Initialize the regular and spam lists
         listDirs(dir_location);
+        
+        ///Optionally count the bigrams in a fixed table of 2^bits buckets, e.g. -Dbayespam.hash=18
+        setHashBits(Integer.getInteger("bayespam.hash", 0));
+        
+        ///Keep the tokenized messages in a cache file, e.g. -Dbayespam.cache=corpus.cache
+        String cacheFile = System.getProperty("bayespam.cache");
+        if (cacheFile != null)
+        {
+            setCache(new CorpusCache(new File(cacheFile)));
+        }
+        
+        ///Read the messages on reader threads while others tokenize them, e.g. -Dbayespam.readers=4
+        setPipeline(Integer.getInteger("bayespam.readers", 0));
 
         // Read the e-mail messages
         readMessages(MessageType.NORMAL);
@@ -383,6 +576,16 @@ public class BigramBayespam {
         
         testMessages();
         
+        if (cache != null)
+        {
+            cache.save();
+            System.out.println(cache.report());
+        }
+        if (pipelined())
+        {
+            System.out.println(pipeline.report());
+        }
+        
         // Now all students must continue from here:
         //
         // 1) A priori class probabilities must be computed from the number of regular and spam messages
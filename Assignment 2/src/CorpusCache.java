@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+public class CorpusCache
+{
+    // Tokenizes every message once and keeps the tokens in a cache file, so experiments with the filters
+    // (the word length, MIN_BIGRAM_LENGTH, MIN_BIGRAM_OCCURANCE, EPSILON) don't parse the corpus again.
+    // The tokens of a message are the toAlpha() results of all tokens of its text lines (see MimeReader),
+    // before any filtering, stored as ids into a dictionary shared by all messages. A message is keyed by
+    // its path, size and modification time, only new or changed messages are parsed again.
+    //
+    // File format (DataOutputStream): MAGIC, VERSION, the number of words and the words (UTF), the number
+    // of messages, then per message its path (UTF), size, mtime, the number of ids and the ids, where
+    // LINE_END separates the lines.
+
+    private static final int MAGIC = 0x42435443;       /// "BCTC"
+    private static final int VERSION = 2;              /// increase when the tokenization changes (2: charsets)
+    private static final int LINE_END = -1;
+
+    private final File file;
+
+    ///The dictionary: the words by id and the ids by word
+    private final Vector<String> words = new Vector<String>();
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+    ///The cached messages by path
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    ///Statistics of this run
+    private int hits;
+    private int parsed;
+    private boolean changed;
+
+    private static class Entry
+    {
+        long size;
+        long mtime;
+        int[] tokens;
+    }
+
+    // Opens the cache in the file, an empty cache if the file doesn't exist or can't be used
+    public CorpusCache(File file)
+    {
+        this.file = file;
+
+        if (file.exists())
+        {
+            try {
+                load();
+            } catch (IOException e) {
+                System.out.println("- Warning: corpus cache " + file + " can't be read, it is built again (" + e + ")");
+                words.clear();
+                ids.clear();
+                entries.clear();
+            }
+        }
+    }
+
+    private void load() throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("not a corpus cache of this version");
+            }
+
+            int wordCount = in.readInt();
+            for (int i = 0; i < wordCount; ++i)
+            {
+                String word = in.readUTF();
+                words.add(word);
+                ids.put(word, i);
+            }
+
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; ++i)
+            {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.mtime = in.readLong();
+                entry.tokens = new int[in.readInt()];
+                for (int t = 0; t < entry.tokens.length; ++t)
+                {
+                    entry.tokens[t] = in.readInt();
+                }
+                entries.put(path, entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // Writes the cache if messages were parsed since it was opened
+    public synchronized void save() throws IOException
+    {
+        if (!changed)
+        {
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(words.size());
+            for (String word : words)
+            {
+                out.writeUTF(word);
+            }
+
+            out.writeInt(entries.size());
+            for (String path : entries.keySet())
+            {
+                Entry entry = entries.get(path);
+                out.writeUTF(path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeInt(entry.tokens.length);
+                for (int id : entry.tokens)
+                {
+                    out.writeInt(id);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        ///Replace the old cache only when the new one is complete
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("can't replace " + file);
+            }
+        }
+        changed = false;
+    }
+
+    // The tokens of the message per line, from the cache or parsed if the message is new or has changed
+    public synchronized String[][] lines(File message) throws IOException
+    {
+        String path = message.getAbsolutePath();
+        Entry entry = entries.get(path);
+
+        if (entry == null || entry.size != message.length() || entry.mtime != message.lastModified())
+        {
+            entry = new Entry();
+            entry.size = message.length();
+            entry.mtime = message.lastModified();
+            entry.tokens = encode(tokenize(message));
+            entries.put(path, entry);
+            changed = true;
+            ++parsed;
+        }
+        else
+        {
+            ++hits;
+        }
+
+        return decode(entry.tokens);
+    }
+
+    // Parses the text lines of a message into tokens (converted by toAlpha, not filtered), without the cache
+    public static String[][] tokenize(File message) throws IOException
+    {
+        return tokenize(new FileInputStream(message));
+    }
+
+    // Parses a message that has been read into memory or is still being read, the stream is closed
+    public static String[][] tokenize(InputStream message) throws IOException
+    {
+        Vector<String[]> lines = new Vector<String[]>();
+        MimeReader in = new MimeReader(new InputStreamReader(message));
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            StringTokenizer st = new StringTokenizer(line);
+            String[] tokens = new String[st.countTokens()];
+            for (int i = 0; i < tokens.length; ++i)
+            {
+                tokens[i] = Bayespam.toAlpha(st.nextToken());
+            }
+            lines.add(tokens);
+        }
+
+        in.close();
+        return lines.toArray(new String[lines.size()][]);
+    }
+
+    private int[] encode(String[][] lines)
+    {
+        int count = 0;
+        for (String[] tokens : lines)
+        {
+            count += tokens.length + 1;
+        }
+
+        int[] encoded = new int[count];
+        int at = 0;
+        for (String[] tokens : lines)
+        {
+            for (String token : tokens)
+            {
+                Integer id = ids.get(token);
+                if (id == null)
+                {
+                    id = words.size();
+                    words.add(token);
+                    ids.put(token, id);
+                }
+                encoded[at++] = id;
+            }
+            encoded[at++] = LINE_END;
+        }
+        return encoded;
+    }
+
+    private String[][] decode(int[] encoded)
+    {
+        Vector<String[]> lines = new Vector<String[]>();
+        int start = 0;
+
+        for (int t = 0; t < encoded.length; ++t)
+        {
+            if (encoded[t] == LINE_END)
+            {
+                String[] tokens = new String[t - start];
+                for (int i = 0; i < tokens.length; ++i)
+                {
+                    tokens[i] = words.get(encoded[start + i]);
+                }
+                lines.add(tokens);
+                start = t + 1;
+            }
+        }
+        return lines.toArray(new String[lines.size()][]);
+    }
+
+    public String report()
+    {
+        return "Corpus cache | messages: " + entries.size() + " words: " + words.size()
+            + " read from cache: " + hits + " parsed: " + parsed;
+    }
+}
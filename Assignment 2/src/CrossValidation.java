@@ -0,0 +1,435 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CrossValidation
+{
+    // k-fold cross-validation of the unigram (Bayespam) or bigram (BigramBayespam) classifier over a grid of
+    // parameters: the smoothing constant EPSILON, the minimum word (or bigram) length and the minimum number
+    // of occurrences of a vocabulary entry (MIN_BIGRAM_OCCURANCE). The messages are tokenized once and the
+    // counts of every fold are counted once; the model of a fold is the total counts minus the counts of
+    // that fold, so no grid point retrains anything. Every (setting, fold) pair is evaluated as a task on a
+    // thread pool. The scores are computed as in the classifiers, including their priors.
+    //
+    // Usage: java CrossValidation <corpus dir with regular/ and spam/> [folds] [unigram|bigram]
+    //   -Dbayespam.epsilon=0.1,1,10      smoothing constants
+    //   -Dbayespam.length=3,4,5          minimum lengths (default 4, or 9 for bigrams including the space)
+    //   -Dbayespam.occurrence=1,2,3      minimum occurrences (default 1, or 2 for bigrams)
+    //   -Dbayespam.threads=<n>           threads (default: the number of processors)
+    //   -Dbayespam.cache=<file>          read the tokens from a CorpusCache
+
+    private final boolean bigrams;
+    private final int folds;
+
+    ///The dictionary of the features (words or bigrams) and their lengths
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private int[] lengths = new int[1024];
+
+    ///Per message: its class, its fold, and its features as counted in training and as scored in testing
+    ///(these differ for bigrams: the classifier starts a new bigram chain on every line, training doesn't)
+    private final Vector<Boolean> spam = new Vector<Boolean>();
+    private int[] fold;
+    private final Vector<int[]> trainFeatures = new Vector<int[]>();
+    private final Vector<int[]> testFeatures = new Vector<int[]>();
+
+    ///The counts of every feature in the regular and spam messages of every fold, and in all folds
+    private int[][] foldRegular;
+    private int[][] foldSpam;
+    private int[] totalRegular;
+    private int[] totalSpam;
+
+    ///The number of regular and spam messages of every fold
+    private int[] foldNormalMessages;
+    private int[] foldSpamMessages;
+
+    // One grid point
+    static class Setting
+    {
+        final double epsilon;
+        final int minLength;
+        final int minOccurrence;
+
+        ///Results summed over the folds
+        int normalCorrect, normalTotal, spamCorrect, spamTotal;
+        long nanos;
+
+        Setting(double epsilon, int minLength, int minOccurrence)
+        {
+            this.epsilon = epsilon;
+            this.minLength = minLength;
+            this.minOccurrence = minOccurrence;
+        }
+    }
+
+    public CrossValidation(int folds, boolean bigrams)
+    {
+        this.folds = folds;
+        this.bigrams = bigrams;
+    }
+
+    // Reads the messages of the regular and spam directory in dir and assigns them to the folds
+    public void read(File dir, CorpusCache cache, long seed) throws IOException
+    {
+        File[] dirs = dir.listFiles();
+        if (dirs == null || dirs.length != 2)
+        {
+            throw new IOException(dir + " does not contain two subdirectories");
+        }
+        Arrays.sort(dirs);                              /// regular/ before spam/
+
+        for (int d = 0; d < 2; ++d)
+        {
+            File[] messages = dirs[d].listFiles();
+            Arrays.sort(messages);
+            final boolean isSpam = d == 1;
+            for (File message : messages)
+            {
+                if (MessageArchive.isArchive(message))  /// mbox, zip and gzip files hold many messages
+                {
+                    MessageArchive.read(message, new MessageArchive.Handler() {
+                        public void handle(InputStream in) throws IOException
+                        {
+                            add(CorpusCache.tokenize(in), isSpam);
+                        }
+                    });
+                }
+                else
+                {
+                    add(cache != null ? cache.lines(message) : CorpusCache.tokenize(message), isSpam);
+                }
+            }
+        }
+
+        ///A random assignment to the folds with (almost) equal sizes
+        Integer[] order = new Integer[spam.size()];
+        for (int i = 0; i < order.length; ++i)
+        {
+            order[i] = i;
+        }
+        java.util.Collections.shuffle(Arrays.asList(order), new Random(seed));
+        fold = new int[order.length];
+        for (int i = 0; i < order.length; ++i)
+        {
+            fold[order[i]] = i % folds;
+        }
+
+        count();
+    }
+
+    private void add(String[][] lines, boolean isSpam)
+    {
+        spam.add(isSpam);
+        trainFeatures.add(bigrams ? trainBigrams(lines) : words(lines));
+        testFeatures.add(bigrams ? testBigrams(lines) : words(lines));
+    }
+
+    private int id(String feature)
+    {
+        Integer id = ids.get(feature);
+        if (id == null)
+        {
+            id = ids.size();
+            ids.put(feature, id);
+            if (id == lengths.length)
+            {
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            lengths[id] = feature.length();
+        }
+        return id;
+    }
+
+    private int[] words(String[][] lines)
+    {
+        int count = 0;
+        for (String[] tokens : lines)
+        {
+            count += tokens.length;
+        }
+
+        int[] features = new int[count];
+        int at = 0;
+        for (String[] tokens : lines)
+        {
+            for (String token : tokens)
+            {
+                features[at++] = id(token);
+            }
+        }
+        return features;
+    }
+
+    // The bigrams BigramBayespam.readMessages counts: the chain of words runs over the lines
+    private int[] trainBigrams(String[][] lines)
+    {
+        Vector<Integer> features = new Vector<Integer>();
+        String old = "";
+
+        for (String[] tokens : lines)
+        {
+            int t = 0;
+            while (t < tokens.length)
+            {
+                if (old == "")
+                    old = tokens[t++];
+                if (t == tokens.length)
+                    break;
+
+                String next = tokens[t++];
+                features.add(id(old + " " + next));
+                old = next;
+            }
+        }
+        return toArray(features);
+    }
+
+    // The bigrams BigramBayespam.classifyMsg scores: every line starts a new chain
+    private int[] testBigrams(String[][] lines)
+    {
+        Vector<Integer> features = new Vector<Integer>();
+
+        for (String[] tokens : lines)
+        {
+            for (int t = 1; t < tokens.length; ++t)
+            {
+                features.add(id(tokens[t - 1] + " " + tokens[t]));
+            }
+        }
+        return toArray(features);
+    }
+
+    private static int[] toArray(Vector<Integer> values)
+    {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; ++i)
+        {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    // Counts every fold once, the totals are the sums of the folds
+    private void count()
+    {
+        int size = ids.size();
+        foldRegular = new int[folds][size];
+        foldSpam = new int[folds][size];
+        totalRegular = new int[size];
+        totalSpam = new int[size];
+        foldNormalMessages = new int[folds];
+        foldSpamMessages = new int[folds];
+
+        for (int m = 0; m < spam.size(); ++m)
+        {
+            int[] counts = spam.get(m) ? foldSpam[fold[m]] : foldRegular[fold[m]];
+            int[] total = spam.get(m) ? totalSpam : totalRegular;
+            for (int feature : trainFeatures.get(m))
+            {
+                ++counts[feature];
+                ++total[feature];
+            }
+
+            if (spam.get(m))
+            {
+                ++foldSpamMessages[fold[m]];
+            }
+            else
+            {
+                ++foldNormalMessages[fold[m]];
+            }
+        }
+    }
+
+    // Trains on all folds but f (total minus fold f) and classifies the messages of fold f
+    private void evaluate(Setting setting, int f)
+    {
+        long start = System.nanoTime();
+        int[] foldR = foldRegular[f];
+        int[] foldS = foldSpam[f];
+
+        ///The word counts of the classes: every counted feature of the minimum length, also the pruned ones
+        double normalWords = 0;
+        double spamWords = 0;
+        for (int id = 0; id < totalRegular.length; ++id)
+        {
+            if (lengths[id] >= setting.minLength)
+            {
+                normalWords += totalRegular[id] - foldR[id];
+                spamWords += totalSpam[id] - foldS[id];
+            }
+        }
+
+        ///The priors as in the classifiers (getPriorNormal() and getPriorSpam())
+        int normalMessages = 0;
+        int spamMessages = 0;
+        for (int g = 0; g < folds; ++g)
+        {
+            if (g != f)
+            {
+                normalMessages += foldNormalMessages[g];
+                spamMessages += foldSpamMessages[g];
+            }
+        }
+        double priorNormal = Math.log((double) normalMessages / normalMessages);
+        double priorSpam = Math.log((double) spamMessages / normalMessages);
+        double zero = setting.epsilon / (normalWords + spamWords);
+
+        int normalCorrect = 0, normalTotal = 0, spamCorrect = 0, spamTotal = 0;
+
+        for (int m = 0; m < spam.size(); ++m)
+        {
+            if (fold[m] != f)
+            {
+                continue;
+            }
+
+            double pNormal = priorNormal;
+            double pSpam = priorSpam;
+            for (int id : testFeatures.get(m))
+            {
+                int regular = totalRegular[id] - foldR[id];
+                int spamCount = totalSpam[id] - foldS[id];
+                if (lengths[id] >= setting.minLength && regular + spamCount >= Math.max(setting.minOccurrence, 1))
+                {
+                    pNormal += Math.log(regular > 0 ? regular / normalWords : zero);
+                    pSpam += Math.log(spamCount > 0 ? spamCount / spamWords : zero);
+                }
+            }
+
+            boolean classifiedSpam = !(pNormal > pSpam);
+            if (spam.get(m))
+            {
+                ++spamTotal;
+                if (classifiedSpam)
+                    ++spamCorrect;
+            }
+            else
+            {
+                ++normalTotal;
+                if (!classifiedSpam)
+                    ++normalCorrect;
+            }
+        }
+
+        synchronized (setting)
+        {
+            setting.normalCorrect += normalCorrect;
+            setting.normalTotal += normalTotal;
+            setting.spamCorrect += spamCorrect;
+            setting.spamTotal += spamTotal;
+            setting.nanos += System.nanoTime() - start;
+        }
+    }
+
+    // Evaluates every setting on every fold on a pool of threads
+    public void sweep(Vector<Setting> settings, int threads) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Vector<Future<?>> tasks = new Vector<Future<?>>();
+
+        try {
+            for (final Setting setting : settings)
+            {
+                for (int f = 0; f < folds; ++f)
+                {
+                    final int testFold = f;
+                    tasks.add(pool.submit(new Runnable() {
+                        public void run()
+                        {
+                            evaluate(setting, testFold);
+                        }
+                    }));
+                }
+            }
+
+            for (Future<?> task : tasks)
+            {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public int messages()
+    {
+        return spam.size();
+    }
+
+    public int features()
+    {
+        return ids.size();
+    }
+
+    private static double[] parse(String values, String defaults)
+    {
+        String[] parts = (values != null ? values : defaults).split(",");
+        double[] parsed = new double[parts.length];
+        for (int i = 0; i < parts.length; ++i)
+        {
+            parsed[i] = Double.parseDouble(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("- Usage: java CrossValidation <corpus dir> [folds] [unigram|bigram]\n");
+            Runtime.getRuntime().exit(0);
+        }
+
+        File dir = new File(args[0]);
+        int folds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        boolean bigrams = args.length > 2 && args[2].equals("bigram");
+
+        double[] epsilons = parse(System.getProperty("bayespam.epsilon"), "0.01,0.1,1,10");
+        double[] lengths = parse(System.getProperty("bayespam.length"), bigrams ? "7,9,11" : "3,4,5");
+        double[] occurrences = parse(System.getProperty("bayespam.occurrence"), bigrams ? "1,2,3" : "1,2");
+        int threads = Integer.getInteger("bayespam.threads", Runtime.getRuntime().availableProcessors());
+        String cacheFile = System.getProperty("bayespam.cache");
+        CorpusCache cache = cacheFile != null ? new CorpusCache(new File(cacheFile)) : null;
+
+        long start = System.currentTimeMillis();
+        CrossValidation cv = new CrossValidation(folds, bigrams);
+        cv.read(dir, cache, 42);
+        if (cache != null)
+        {
+            cache.save();
+        }
+        System.out.println("Read " + cv.messages() + " messages, " + cv.features() + (bigrams ? " bigrams" : " words")
+            + " in " + (System.currentTimeMillis() - start) + " ms");
+
+        Vector<Setting> settings = new Vector<Setting>();
+        for (double epsilon : epsilons)
+            for (double length : lengths)
+                for (double occurrence : occurrences)
+                    settings.add(new Setting(epsilon, (int) length, (int) occurrence));
+
+        start = System.currentTimeMillis();
+        cv.sweep(settings, threads);
+        System.out.println(settings.size() + " settings x " + folds + " folds on " + threads + " threads in "
+            + (System.currentTimeMillis() - start) + " ms\n");
+
+        DecimalFormat format = new DecimalFormat("0.000");
+        System.out.println("epsilon\tlength\toccur\tFAR\tFRR\taccuracy\tms");
+        for (Setting s : settings)
+        {
+            ///FAR: spam accepted as regular (misses), FRR: regular rejected as spam (false alarms)
+            double far = 1 - (double) s.spamCorrect / s.spamTotal;
+            double frr = 1 - (double) s.normalCorrect / s.normalTotal;
+            double accuracy = (double) (s.normalCorrect + s.spamCorrect) / (s.normalTotal + s.spamTotal);
+            System.out.println(s.epsilon + "\t" + s.minLength + "\t" + s.minOccurrence + "\t" + format.format(far) + "\t"
+                + format.format(frr) + "\t" + format.format(accuracy) + "\t\t" + format.format(s.nanos / 1e6));
+        }
+    }
+}
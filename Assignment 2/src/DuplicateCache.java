@@ -0,0 +1,396 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DuplicateCache
+{
+    // Remembers the outcome of recently classified messages by their SimHash fingerprint, so copies of the
+    // same message (spam campaigns send one body to thousands of recipients) aren't scored again. The SimHash
+    // of a message is 64 bits: bit i is set if more of its words have bit i set in their hash than not, so
+    // messages that differ in a few words have fingerprints that differ in a few bits. A message within
+    // maxDistance bits of a cached one (0 for exact copies only) gets the cached outcome.
+    //
+    // Near matches are found by banded lookup: the fingerprint is cut into maxDistance + 1 bands, and two
+    // fingerprints within maxDistance bits have at least one band in common, so only the fingerprints that
+    // share a band are compared. The least recently used entry (of the fullest segment, see below) is
+    // evicted when the cache is full. An entry is only used for the version of the model it was scored with.
+
+    public static class Entry
+    {
+        final long fingerprint;
+        final Bayespam.MessageType type;
+        final double score;                             /// pNormal - pSpam
+        final int modelVersion;
+
+        Entry(long fingerprint, Bayespam.MessageType type, double score, int modelVersion)
+        {
+            this.fingerprint = fingerprint;
+            this.type = type;
+            this.score = score;
+            this.modelVersion = modelVersion;
+        }
+
+        public Bayespam.MessageType type()
+        {
+            return type;
+        }
+
+        public double score()
+        {
+            return score;
+        }
+    }
+
+    // The entries are split over segments by fingerprint, every segment is a least recently used map with its
+    // own lock, so classifier threads only wait for each other when they use the same segment. When the cache
+    // is full, a put evicts the least recently used entry of the fullest segment, never the entry it just
+    // added (its own segment may hold nothing else). The band index has a concurrent
+    // map per band, its values are arrays of fingerprints that are replaced (copy on write) rather than
+    // changed, so lookups read them without locking.
+    private static final int SEGMENTS = 16;
+
+    private static class Segment
+    {
+        ///The entries of the segment by fingerprint, least recently used first
+        final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+    }
+
+    private final int capacity;
+    private final int maxDistance;
+    private final int bands;
+
+    private final Segment[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+
+    ///The fingerprints by band bits, one map per band
+    private final ConcurrentHashMap<Long, long[]>[] bandIndex;
+
+    ///Statistics, counted on every lookup by all threads
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder savedWords = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public DuplicateCache(int capacity, int maxDistance)
+    {
+        if (capacity < 1 || maxDistance < 0 || maxDistance > 15)
+        {
+            throw new IllegalArgumentException("a duplicate cache needs a capacity and a distance of 0 to 15 bits");
+        }
+
+        this.capacity = capacity;
+        this.maxDistance = maxDistance;
+        this.bands = maxDistance + 1;
+
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; ++i)
+        {
+            segments[i] = new Segment();
+        }
+
+        bandIndex = (ConcurrentHashMap<Long, long[]>[]) new ConcurrentHashMap<?, ?>[bands];
+        for (int b = 0; b < bands; ++b)
+        {
+            bandIndex[b] = new ConcurrentHashMap<Long, long[]>();
+        }
+    }
+
+    // The SimHash of the words of a message, every occurrence of a word counts
+    public static long simHash(List<String> words)
+    {
+        int[] votes = new int[64];
+
+        for (String word : words)
+        {
+            long h = hash(word);
+            for (int bit = 0; bit < 64; ++bit)
+            {
+                votes[bit] += (int) ((h >>> bit) & 1) * 2 - 1;
+            }
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; ++bit)
+        {
+            if (votes[bit] > 0)
+            {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    // A 64 bit hash of a word: FNV-1a over its chars with the bits mixed (murmur3 finalizer)
+    private static long hash(String word)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); ++i)
+        {
+            h ^= word.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // The bits of band b of a fingerprint, its key in bandIndex[b]
+    private long band(long fingerprint, int b)
+    {
+        int width = 64 / bands;
+        int from = b * width;
+        int to = b == bands - 1 ? 64 : from + width;
+        return (fingerprint >>> from) & (to - from == 64 ? -1L : (1L << (to - from)) - 1);
+    }
+
+    private Segment segment(long fingerprint)
+    {
+        return segments[(int) (fingerprint ^ (fingerprint >>> 32)) & (SEGMENTS - 1)];
+    }
+
+    // The entry of a fingerprint if it was scored with this model version, it becomes the most recently used
+    private Entry get(long fingerprint, int modelVersion)
+    {
+        Segment segment = segment(fingerprint);
+        synchronized (segment)
+        {
+            Entry entry = segment.entries.get(fingerprint);
+            return entry != null && entry.modelVersion == modelVersion ? entry : null;
+        }
+    }
+
+    // The outcome of a message that was classified with this model version and is within maxDistance
+    // of the fingerprint, null if there is none. words is the number of words scoring would take.
+    public Entry lookup(long fingerprint, int modelVersion, int words)
+    {
+        lookups.increment();
+
+        Entry entry = get(fingerprint, modelVersion);
+        if (entry != null)
+        {
+            exactHits.increment();
+            savedWords.add(words);
+            return entry;
+        }
+
+        if (maxDistance > 0)
+        {
+            for (int b = 0; b < bands; ++b)
+            {
+                long[] candidates = bandIndex[b].get(band(fingerprint, b));
+                if (candidates == null)
+                {
+                    continue;
+                }
+
+                for (long candidate : candidates)
+                {
+                    if (Long.bitCount(candidate ^ fingerprint) <= maxDistance)
+                    {
+                        entry = get(candidate, modelVersion);
+                        if (entry != null)
+                        {
+                            nearHits.increment();
+                            savedWords.add(words);
+                            return entry;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // The band index of a fingerprint is changed under the lock of its segment, so it is never
+    // indexed and unindexed at the same time
+    public void put(long fingerprint, Bayespam.MessageType type, double score, int modelVersion)
+    {
+        Segment segment = segment(fingerprint);
+        synchronized (segment)
+        {
+            Entry old = segment.entries.put(fingerprint, new Entry(fingerprint, type, score, modelVersion));
+            if (old != null)
+            {
+                return;                                 /// replaced an entry of an older model, same bands
+            }
+
+            for (int b = 0; b < bands; ++b)
+            {
+                index(bandIndex[b], band(fingerprint, b), fingerprint);
+            }
+        }
+
+        if (size.incrementAndGet() > capacity)
+        {
+            evict(fingerprint);
+        }
+    }
+
+    // Evicts entries until the cache isn't over capacity, the least recently used one of the fullest
+    // segment first. Only one segment is locked at a time, the sizes are read without locking.
+    private void evict(long keep)
+    {
+        while (size.get() > capacity)
+        {
+            Segment fullest = null;
+            int most = 0;
+            for (Segment segment : segments)
+            {
+                int entries = segment.entries.size() - (segment == segment(keep) ? 1 : 0);
+                if (entries > most)
+                {
+                    fullest = segment;
+                    most = entries;
+                }
+            }
+            if (fullest == null)
+            {
+                return;                                 /// only the new entry is left, another put evicted the rest
+            }
+
+            synchronized (fullest)
+            {
+                int current = size.get();
+                if (current <= capacity)
+                {
+                    return;
+                }
+
+                Iterator<Long> eldest = fullest.entries.keySet().iterator();
+                while (eldest.hasNext())
+                {
+                    long evicted = eldest.next();
+                    if (evicted == keep)
+                    {
+                        continue;
+                    }
+
+                    if (size.compareAndSet(current, current - 1))   /// else the size changed, look again
+                    {
+                        eldest.remove();
+                        unindex(evicted);
+                        evictions.increment();
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private void unindex(long fingerprint)
+    {
+        for (int b = 0; b < bands; ++b)
+        {
+            unindex(bandIndex[b], band(fingerprint, b), fingerprint);
+        }
+    }
+
+    // Adds a fingerprint to the array of a band key, other segments may change the same key at the same time
+    private static void index(ConcurrentHashMap<Long, long[]> index, long key, long fingerprint)
+    {
+        while (true)
+        {
+            long[] fingerprints = index.get(key);
+            if (fingerprints == null)
+            {
+                if (index.putIfAbsent(key, new long[] { fingerprint }) == null)
+                {
+                    return;
+                }
+                continue;
+            }
+
+            long[] larger = Arrays.copyOf(fingerprints, fingerprints.length + 1);
+            larger[fingerprints.length] = fingerprint;
+            if (index.replace(key, fingerprints, larger))
+            {
+                return;
+            }
+        }
+    }
+
+    private static void unindex(ConcurrentHashMap<Long, long[]> index, long key, long fingerprint)
+    {
+        while (true)
+        {
+            long[] fingerprints = index.get(key);
+            int at = fingerprints == null ? -1 : indexOf(fingerprints, fingerprint);
+            if (at < 0)
+            {
+                return;
+            }
+
+            if (fingerprints.length == 1)
+            {
+                if (index.remove(key, fingerprints))
+                {
+                    return;
+                }
+                continue;
+            }
+
+            long[] smaller = new long[fingerprints.length - 1];
+            System.arraycopy(fingerprints, 0, smaller, 0, at);
+            System.arraycopy(fingerprints, at + 1, smaller, at, smaller.length - at);
+            if (index.replace(key, fingerprints, smaller))
+            {
+                return;
+            }
+        }
+    }
+
+    private static int indexOf(long[] fingerprints, long fingerprint)
+    {
+        for (int i = 0; i < fingerprints.length; ++i)
+        {
+            if (fingerprints[i] == fingerprint)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                for (long fingerprint : segment.entries.keySet())
+                {
+                    unindex(fingerprint);
+                }
+                size.addAndGet(-segment.entries.size());
+                segment.entries.clear();
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size.get();
+    }
+
+    public double hitRate()
+    {
+        long count = lookups.sum();
+        return count == 0 ? 0 : (double) (exactHits.sum() + nearHits.sum()) / count;
+    }
+
+    public String report()
+    {
+        return "Duplicate cache | entries: " + size() + " of " + capacity + " lookups: " + lookups.sum()
+            + " exact hits: " + exactHits.sum() + " near hits: " + nearHits.sum() + " (hit rate "
+            + Math.round(100 * hitRate()) + "%) evicted: " + evictions.sum() + " words not scored: " + savedWords.sum();
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+public class HashedCounts
+{
+    // Regular and spam counts of tokens hashed into a fixed power-of-two table (the hashing trick).
+    // No String keys are stored: the memory is 8 bytes per bucket, known in advance, however many
+    // new tokens arrive. Tokens that hash to the same bucket share their counts, see report().
+
+    private final int mask;
+    private final int[] regular;
+    private final int[] spam;
+
+    ///Number of buckets with a non-zero count
+    private int used;
+
+    public HashedCounts(int bits)
+    {
+        if (bits < 1 || bits > 30)
+        {
+            throw new IllegalArgumentException("hash table bits must be between 1 and 30: " + bits);
+        }
+
+        regular = new int[1 << bits];
+        spam = new int[1 << bits];
+        mask = (1 << bits) - 1;
+    }
+
+    // A copy of the counts of other, e.g. for a snapshot that doesn't change when other does
+    public HashedCounts(HashedCounts other)
+    {
+        regular = other.regular.clone();
+        spam = other.spam.clone();
+        mask = other.mask;
+        used = other.used;
+    }
+
+    // The bucket of a token: its String hash with the bits mixed (murmur3 finalizer), so the low bits are usable
+    private int bucket(String token)
+    {
+        int h = token.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    public void add(String token, boolean isSpam)
+    {
+        int b = bucket(token);
+        if (regular[b] + spam[b] == 0)
+        {
+            ++used;
+        }
+
+        if (isSpam)
+        {
+            ++spam[b];
+        }
+        else
+        {
+            ++regular[b];
+        }
+    }
+
+    // Takes a token that was added out again, a count doesn't go below zero
+    public void remove(String token, boolean isSpam)
+    {
+        int b = bucket(token);
+        if (regular[b] + spam[b] == 0)
+        {
+            return;
+        }
+
+        if (isSpam)
+        {
+            spam[b] = Math.max(spam[b] - 1, 0);
+        }
+        else
+        {
+            regular[b] = Math.max(regular[b] - 1, 0);
+        }
+
+        if (regular[b] + spam[b] == 0)
+        {
+            --used;
+        }
+    }
+
+    public int regularCount(String token)
+    {
+        return regular[bucket(token)];
+    }
+
+    public int spamCount(String token)
+    {
+        return spam[bucket(token)];
+    }
+
+    // The counts of a bucket (0 .. buckets()-1), e.g. to go over all counts
+    public int regularAt(int b)
+    {
+        return regular[b];
+    }
+
+    public int spamAt(int b)
+    {
+        return spam[b];
+    }
+
+    // True if the token (or a token in the same bucket) has been counted
+    public boolean contains(String token)
+    {
+        int b = bucket(token);
+        return regular[b] + spam[b] > 0;
+    }
+
+    // Empties the buckets with fewer than min counts (like pruning rare words from a vocabulary)
+    public void prune(int min)
+    {
+        for (int b = 0; b <= mask; ++b)
+        {
+            int total = regular[b] + spam[b];
+            if (total > 0 && total < min)
+            {
+                regular[b] = 0;
+                spam[b] = 0;
+                --used;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        Arrays.fill(regular, 0);
+        Arrays.fill(spam, 0);
+        used = 0;
+    }
+
+    public int buckets()
+    {
+        return mask + 1;
+    }
+
+    public int used()
+    {
+        return used;
+    }
+
+    // The number of distinct tokens, estimated from the number of used buckets (linear counting):
+    // n tokens hashed into m buckets leave m * e^(-n/m) of them empty
+    public double estimatedTokens()
+    {
+        int m = buckets();
+        if (used >= m)
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        return -m * Math.log(1.0 - (double) used / m);
+    }
+
+    // Estimated number of tokens that share a bucket with an earlier token
+    public double estimatedCollisions()
+    {
+        return estimatedTokens() - used;
+    }
+
+    public String report()
+    {
+        double tokens = estimatedTokens();
+        if (Double.isInfinite(tokens))
+        {
+            return "Hash table | buckets: " + buckets() + " (" + (8L * buckets() / 1024) + " KB) all used,"
+                + " too many tokens to estimate: use more buckets";
+        }
+        return "Hash table | buckets: " + buckets() + " (" + (8L * buckets() / 1024) + " KB) used: " + used
+            + " estimated tokens: " + Math.round(tokens) + " colliding: " + Math.round(estimatedCollisions())
+            + " (" + Math.round(100 * estimatedCollisions() / Math.max(tokens, 1)) + "%)";
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class MessageArchive
+{
+    // Reads the messages of an archive without extracting it: an mbox file (.mbox, .mbx), a zip file
+    // (.zip) or a gzipped file (.gz). An mbox file is memory-mapped and split at its "From " lines, every
+    // message is passed as a view of the mapped file, nothing is copied. Zip entries and gzipped files are
+    // streamed: an entry or file that starts with "From " is split as an mbox, otherwise it is one message.
+    // A "From " line separates messages at the start of the file or after an empty line, the separator
+    // itself (the envelope) isn't part of the message.
+
+    // Processes one message, called for the messages in the order of the archive. The stream is only
+    // valid during the call (a view of a mapped file, or of a buffer that is reused).
+    public interface Handler
+    {
+        void handle(InputStream message) throws IOException;
+    }
+
+    ///An mbox file is mapped in windows of at most this size, a message has to fit in a window
+    private static final int WINDOW = 1 << 30;
+
+    private static final byte[] FROM = { 'F', 'r', 'o', 'm', ' ' };
+
+    public static boolean isArchive(File f)
+    {
+        String name = f.getName().toLowerCase();
+        return name.endsWith(".mbox") || name.endsWith(".mbx") || name.endsWith(".zip") || name.endsWith(".gz");
+    }
+
+    // Passes every message of the archive to the handler, returns the number of messages
+    public static int read(File f, Handler handler) throws IOException
+    {
+        String name = f.getName().toLowerCase();
+
+        if (name.endsWith(".zip"))
+        {
+            return readZip(f, handler);
+        }
+        if (name.endsWith(".gz"))
+        {
+            InputStream in = new GZIPInputStream(new FileInputStream(f), 1 << 16);
+            try {
+                return readStream(in, handler);
+            } finally {
+                in.close();
+            }
+        }
+        return readMbox(f, handler);
+    }
+
+    private static int readZip(File f, Handler handler) throws IOException
+    {
+        ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+        int count = 0;
+
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null)
+            {
+                if (!entry.isDirectory())
+                {
+                    InputStream entryIn = entry.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(in) : in;
+                    count += readStream(entryIn, handler);   /// the handler gets copies, it can't close the zip
+                }
+                in.closeEntry();
+            }
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+/// ------------ mapped mbox files ------------------
+
+    private static int readMbox(File f, Handler handler) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        int count = 0;
+
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size)
+            {
+                boolean last = size - position <= WINDOW;
+                int length = (int) Math.min(size - position, WINDOW);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                ///The messages of the window: from a separator (or the start) to the next separator
+                int start = 0;
+                int next;
+                while ((next = nextSeparator(window, start, length)) >= 0)
+                {
+                    count += message(window, start, next, handler);
+                    start = next;
+                }
+
+                if (last)
+                {
+                    count += message(window, start, length, handler);
+                    break;
+                }
+                if (start == 0)
+                {
+                    throw new IOException("a message in " + f + " is larger than " + (WINDOW >> 20) + " MB");
+                }
+                position += start;                      /// the next window starts at the unfinished message
+            }
+        } finally {
+            file.close();
+        }
+        return count;
+    }
+
+    // The position of the next separator after from (where the current message starts), -1 if there is none
+    private static int nextSeparator(ByteBuffer buffer, int from, int end)
+    {
+        for (int i = from + 1; i <= end - FROM.length; ++i)
+        {
+            if (buffer.get(i) == 'F' && isSeparator(buffer, i))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // "From " at the start of a line, at the start of the buffer or after an empty line
+    private static boolean isSeparator(ByteBuffer buffer, int i)
+    {
+        if (i + FROM.length > buffer.limit())
+        {
+            return false;
+        }
+        for (int k = 0; k < FROM.length; ++k)
+        {
+            if (buffer.get(i + k) != FROM[k])
+            {
+                return false;
+            }
+        }
+
+        if (i == 0)
+        {
+            return true;
+        }
+        if (buffer.get(i - 1) != '\n')
+        {
+            return false;
+        }
+        int before = i - 2;
+        if (before >= 0 && buffer.get(before) == '\r')
+        {
+            --before;
+        }
+        return before < 0 || buffer.get(before) == '\n';
+    }
+
+    // Passes buffer[start, end) without its separator line as a message, empty messages are skipped
+    private static int message(ByteBuffer buffer, int start, int end, Handler handler) throws IOException
+    {
+        if (start < end && isSeparator(buffer, start))
+        {
+            while (start < end && buffer.get(start++) != '\n')
+            {
+                /// skip the envelope line
+            }
+        }
+        if (start >= end)
+        {
+            return 0;
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(start);
+        handler.handle(new ByteBufferInputStream(view.slice()));
+        return 1;
+    }
+
+/// ------------ streamed mbox files ------------------
+
+    // Splits a stream that starts with a separator at its separators, any other stream is a single message
+    // (a "From " line in its body is just text)
+    private static int readStream(InputStream stream, Handler handler) throws IOException
+    {
+        LineReader in = new LineReader(new BufferedInputStream(stream, 1 << 16));
+        MessageBuffer message = new MessageBuffer();
+        boolean previousEmpty = true;                   /// the start of the stream counts as after an empty line
+        Boolean mbox = null;                            /// decided by the first line
+        int count = 0;
+        int length;
+
+        while ((length = in.readLine()) >= 0)
+        {
+            if (mbox == null)
+            {
+                mbox = startsWith(in.line, length, FROM);
+            }
+            if (mbox && previousEmpty && startsWith(in.line, length, FROM))
+            {
+                count += message.flush(handler);
+            }
+            else
+            {
+                message.append(in.line, length);
+            }
+            previousEmpty = length == 1 || (length == 2 && in.line[0] == '\r');
+        }
+
+        return count + message.flush(handler);
+    }
+
+    private static boolean startsWith(byte[] line, int length, byte[] prefix)
+    {
+        if (length < prefix.length)
+        {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; ++k)
+        {
+            if (line[k] != prefix[k])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the lines of a stream as bytes, the line is reused for the next line
+    private static class LineReader
+    {
+        private final InputStream in;
+        byte[] line = new byte[256];
+
+        LineReader(InputStream in)
+        {
+            this.in = in;
+        }
+
+        // Reads a line including its '\n', returns its length or -1 at the end of the stream
+        int readLine() throws IOException
+        {
+            int length = 0;
+            int b;
+
+            while ((b = in.read()) >= 0)
+            {
+                if (length == line.length)
+                {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = (byte) b;
+                if (b == '\n')
+                {
+                    break;
+                }
+            }
+            return length == 0 ? -1 : length;
+        }
+    }
+
+    // The message being read from a stream, the array is reused for the next message
+    private static class MessageBuffer
+    {
+        byte[] data = new byte[1 << 16];
+        int length;
+
+        void append(byte[] bytes, int count)
+        {
+            if (length + count > data.length)
+            {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+            }
+            System.arraycopy(bytes, 0, data, length, count);
+            length += count;
+        }
+
+        int flush(Handler handler) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            handler.handle(new ByteArrayInputStream(data, 0, length));
+            length = 0;
+            return 1;
+        }
+    }
+
+    // An InputStream over a ByteBuffer, reads the mapped file directly
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
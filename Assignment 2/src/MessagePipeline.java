@@ -0,0 +1,247 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MessagePipeline
+{
+    // Overlaps reading messages with tokenizing and counting them. Reader threads read whole files into
+    // pooled buffers and pass them through a bounded queue to worker threads, which hand each message to
+    // a Handler. A reader blocks when all buffers are in use (the workers are behind) and a worker blocks
+    // when the queue is empty (the disk is behind), so the memory is bounded by the pool and the throughput
+    // approaches the slower of the disk and the CPU instead of the sum of both. See report() for which it was.
+
+    // Processes one message, called on a worker thread: concurrently with other messages and in any order
+    public interface Handler
+    {
+        void handle(int index, InputStream message) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_POOLED_SIZE = 1 << 22;     /// larger buffers go back to the pool at BUFFER_SIZE
+
+    private static class Buffer
+    {
+        int index;
+        byte[] data = new byte[BUFFER_SIZE];
+        int length;
+    }
+
+    ///Tells a worker that the readers are done
+    private static final Buffer END = new Buffer();
+
+    private final int readers;
+    private final int workers;
+    private final int capacity;
+
+    ///Statistics: bytes read, and how long readers waited for buffers and workers waited for messages
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong readerWait = new AtomicLong();
+    private final AtomicLong workerWait = new AtomicLong();
+
+    // readers threads read into a queue of at most capacity messages that workers threads process
+    public MessagePipeline(int readers, int workers, int capacity)
+    {
+        if (readers < 1 || workers < 1 || capacity < 1)
+        {
+            throw new IllegalArgumentException("a pipeline needs at least one reader, worker and queue slot");
+        }
+
+        this.readers = readers;
+        this.workers = workers;
+        this.capacity = capacity;
+    }
+
+    // Reads all files and passes them to the handler, returns when every message has been handled.
+    // The first exception of a reader or handler stops the pipeline and is thrown here.
+    public void run(final File[] files, final Handler handler) throws IOException
+    {
+        ///A buffer is free, being read, queued, or being processed: this many never makes a reader wait for nothing
+        final ArrayBlockingQueue<Buffer> pool = new ArrayBlockingQueue<Buffer>(capacity + readers + workers);
+        for (int i = 0; i < capacity + readers + workers; ++i)
+        {
+            pool.add(new Buffer());
+        }
+        final ArrayBlockingQueue<Buffer> queue = new ArrayBlockingQueue<Buffer>(capacity + workers);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger readersLeft = new AtomicInteger(readers);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[readers + workers];
+
+        for (int r = 0; r < readers; ++r)
+        {
+            threads[r] = new Thread("message reader " + r) {
+                public void run()
+                {
+                    try {
+                        int i;
+                        while (failure.get() == null && (i = next.getAndIncrement()) < files.length)
+                        {
+                            long start = System.nanoTime();
+                            Buffer buffer = pool.take();
+                            readerWait.addAndGet(System.nanoTime() - start);
+
+                            buffer.index = i;
+                            try {
+                                read(files[i], buffer);
+                            } catch (IOException e) {
+                                pool.add(buffer);
+                                throw e;
+                            }
+                            queue.put(buffer);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        if (readersLeft.decrementAndGet() == 0)     /// the last reader stops the workers
+                        {
+                            for (int w = 0; w < workers; ++w)
+                            {
+                                putUninterruptibly(queue, END);
+                            }
+                        }
+                    }
+                }
+            };
+        }
+
+        for (int w = 0; w < workers; ++w)
+        {
+            threads[readers + w] = new Thread("message worker " + w) {
+                public void run()
+                {
+                    while (true)
+                    {
+                        Buffer buffer;
+                        long start = System.nanoTime();
+                        try {
+                            buffer = queue.take();
+                        } catch (InterruptedException e) {
+                            failure.compareAndSet(null, e);
+                            return;
+                        }
+                        workerWait.addAndGet(System.nanoTime() - start);
+
+                        if (buffer == END)
+                        {
+                            return;
+                        }
+
+                        try {
+                            if (failure.get() == null)      /// after a failure the queue is only drained
+                            {
+                                handler.handle(buffer.index, new ByteArrayInputStream(buffer.data, 0, buffer.length));
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            if (buffer.data.length > MAX_POOLED_SIZE)
+                            {
+                                buffer.data = new byte[BUFFER_SIZE];
+                            }
+                            pool.add(buffer);
+                        }
+                    }
+                }
+            };
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                for (Thread t : threads)
+                {
+                    t.interrupt();
+                }
+            }
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof IOException)
+        {
+            throw (IOException) e;
+        }
+        if (e instanceof InterruptedException)
+        {
+            throw new InterruptedIOException("message pipeline interrupted");
+        }
+        if (e instanceof RuntimeException)
+        {
+            throw (RuntimeException) e;
+        }
+        if (e != null)
+        {
+            throw new IOException("message pipeline failed", e);
+        }
+    }
+
+    // Reads the whole file into the buffer, growing it if the file doesn't fit
+    private void read(File file, Buffer buffer) throws IOException
+    {
+        if (buffer.data.length < file.length())
+        {
+            buffer.data = new byte[(int) Math.min(file.length(), Integer.MAX_VALUE - 8)];
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer.data, length, buffer.data.length - length)) > 0)
+            {
+                length += n;
+                if (length == buffer.data.length)           /// full: usually the end, unless the file has grown
+                {
+                    int next = in.read();
+                    if (next < 0)
+                    {
+                        break;
+                    }
+                    byte[] larger = new byte[buffer.data.length * 2];
+                    System.arraycopy(buffer.data, 0, larger, 0, length);
+                    larger[length++] = (byte) next;
+                    buffer.data = larger;
+                }
+            }
+            buffer.length = length;
+            bytes.addAndGet(length);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void putUninterruptibly(ArrayBlockingQueue<Buffer> queue, Buffer buffer)
+    {
+        while (true)
+        {
+            try {
+                queue.put(buffer);
+                return;
+            } catch (InterruptedException e) {
+                /// the workers still need to be stopped
+            }
+        }
+    }
+
+    // Readers waiting long for buffers means the workers (the CPU) are the bottleneck,
+    // workers waiting long for messages means the readers (the disk) are
+    public String report()
+    {
+        return "Pipeline | readers: " + readers + " workers: " + workers + " read: " + bytes.get() / 1024 + " KB"
+            + " readers waited: " + readerWait.get() / 1000000 + " ms workers waited: " + workerWait.get() / 1000000 + " ms";
+    }
+}
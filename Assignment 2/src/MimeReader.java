@@ -0,0 +1,372 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Vector;
+
+public class MimeReader
+{
+    // A streaming MIME parser in front of the tokenizer. readLine() returns only the lines worth tokenizing:
+    // the headers of the message (and of forwarded messages), and the text parts with quoted-printable
+    // decoded and HTML tags removed. The headers of the parts, the preambles and epilogues of multiparts, and
+    // all non-text and base64 parts (attachments, images) are skipped without being tokenized.
+    // A message without MIME headers is returned as it is.
+    // Quoted-printable escapes are bytes: they are decoded with the charset parameter of the Content-Type
+    // of the part. The callers read messages with the platform charset, so that is used for the chars
+    // that aren't escaped and for parts without (or with an unknown) charset.
+
+    private final BufferedReader in;
+
+    ///The boundaries of the multiparts we are in, innermost last
+    private final Vector<String> boundaries = new Vector<String>();
+
+    ///Chars read from the message so far, including skipped lines
+    private long charsRead;
+
+    ///State of the headers being read
+    private boolean inHeaders = true;
+    private boolean emitHeaders = true;              /// message headers are text, part headers aren't
+    private String header;                           /// the header being read, with its continuation lines
+
+    ///The part being read
+    private String contentType = "text/plain";
+    private String encoding = "7bit";
+    private String boundary;
+    private Charset charset = READ_CHARSET;
+    private boolean skipping;
+
+    private static final Charset READ_CHARSET = Charset.defaultCharset();
+
+    ///Quoted-printable soft line breaks join lines, the start of the line is kept here
+    private StringBuilder pending = new StringBuilder();
+
+    ///HTML tags can span lines: inside a tag, its first chars, and the closing tag to skip to (style and script content)
+    private boolean inTag;
+    private StringBuilder tag = new StringBuilder();
+    private String skipUntil;
+
+    public MimeReader(Reader reader)
+    {
+        in = new BufferedReader(reader);
+    }
+
+    public long charsRead()
+    {
+        return charsRead;
+    }
+
+    public String readLine() throws IOException
+    {
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            charsRead += line.length() + 1;
+
+            if (line.startsWith("--") && isBoundary(line))
+            {
+                continue;
+            }
+
+            if (inHeaders)
+            {
+                if (line.length() == 0)
+                {
+                    endHeaders();
+                }
+                else if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && header != null)
+                {
+                    header += " " + line.trim();
+                }
+                else
+                {
+                    parseHeader();
+                    header = line;
+                }
+
+                if (emitHeaders)
+                {
+                    return line;
+                }
+                continue;
+            }
+
+            if (skipping)
+            {
+                continue;
+            }
+
+            if (encoding.equals("quoted-printable"))
+            {
+                if (line.endsWith("="))                 /// soft line break, the line continues on the next one
+                {
+                    pending.append(line, 0, line.length() - 1);
+                    continue;
+                }
+                pending.append(line);
+                line = decodeQuotedPrintable(pending, charset);
+                pending.setLength(0);
+            }
+
+            if (contentType.equals("text/html"))
+            {
+                line = stripHtml(line);
+            }
+
+            return line;
+        }
+
+        if (pending.length() > 0)                       /// a soft line break at the end of the message
+        {
+            line = decodeQuotedPrintable(pending, charset);
+            pending.setLength(0);
+            return contentType.equals("text/html") ? stripHtml(line) : line;
+        }
+        return null;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    // Handles a boundary line: the next part starts, or a multipart ends
+    private boolean isBoundary(String line)
+    {
+        for (int i = boundaries.size() - 1; i >= 0; --i)
+        {
+            String b = boundaries.get(i);
+            if (!line.startsWith(b, 2))
+            {
+                continue;
+            }
+
+            boolean closing = line.startsWith("--", 2 + b.length());
+            if (!closing && line.trim().length() != 2 + b.length())
+            {
+                continue;
+            }
+
+            boundaries.setSize(closing ? i : i + 1);    /// inner multiparts without closing boundary end too
+            pending.setLength(0);
+            inTag = false;
+            skipUntil = null;
+
+            if (closing)
+            {
+                skipping = true;                        /// the epilogue
+                inHeaders = false;
+            }
+            else
+            {
+                inHeaders = true;                       /// the headers of the next part
+                emitHeaders = false;
+                header = null;
+                contentType = "text/plain";
+                encoding = "7bit";
+                boundary = null;
+                charset = READ_CHARSET;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void endHeaders()
+    {
+        parseHeader();
+        header = null;
+
+        if (contentType.startsWith("multipart/") && boundary != null)
+        {
+            boundaries.add(boundary);
+            skipping = true;                            /// the preamble
+            inHeaders = false;
+        }
+        else if (contentType.equals("message/rfc822"))
+        {
+            emitHeaders = true;                         /// a forwarded message starts with its own headers
+            contentType = "text/plain";
+            encoding = "7bit";
+            boundary = null;
+            charset = READ_CHARSET;
+        }
+        else
+        {
+            skipping = !contentType.startsWith("text/") || encoding.equals("base64");
+            inHeaders = false;
+        }
+    }
+
+    // Reads the Content-Type and Content-Transfer-Encoding of the part from the header that is complete
+    private void parseHeader()
+    {
+        if (header == null)
+        {
+            return;
+        }
+
+        int colon = header.indexOf(':');
+        if (colon < 0)
+        {
+            return;
+        }
+
+        String name = header.substring(0, colon).trim().toLowerCase();
+        String value = header.substring(colon + 1).trim();
+
+        if (name.equals("content-type"))
+        {
+            int semicolon = value.indexOf(';');
+            contentType = (semicolon < 0 ? value : value.substring(0, semicolon)).trim().toLowerCase();
+            boundary = parameter(value, "boundary");
+            charset = charset(parameter(value, "charset"));
+        }
+        else if (name.equals("content-transfer-encoding"))
+        {
+            encoding = value.toLowerCase();
+        }
+    }
+
+    // The value of a parameter of a header (name=value or name="value"), null if it isn't there
+    private static String parameter(String value, String name)
+    {
+        int at = value.toLowerCase().indexOf(name + "=");
+        if (at < 0)
+        {
+            return null;
+        }
+
+        String rest = value.substring(at + name.length() + 1).trim();
+        if (rest.startsWith("\""))
+        {
+            int end = rest.indexOf('"', 1);
+            return end < 0 ? rest.substring(1) : rest.substring(1, end);
+        }
+
+        int end = rest.indexOf(';');
+        return (end < 0 ? rest : rest.substring(0, end)).trim();
+    }
+
+    // The charset with this name, READ_CHARSET if there is none or Java doesn't know it
+    private static Charset charset(String name)
+    {
+        if (name == null)
+        {
+            return READ_CHARSET;
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return READ_CHARSET;                        /// an illegal or unsupported charset name
+        }
+    }
+
+    // The name of the tag that just ended, with a leading / for a closing tag
+    private String tagName()
+    {
+        int end = tag.length() > 0 && tag.charAt(0) == '/' ? 1 : 0;
+        while (end < tag.length() && Character.isLetter(tag.charAt(end)))
+        {
+            ++end;
+        }
+        return tag.substring(0, end).toLowerCase();
+    }
+
+    // Collects the bytes of the line (the escapes, and the other chars as READ_CHARSET bytes) and decodes
+    // them with the charset of the part, so a multi-byte char that is escaped byte by byte is one char again
+    private static String decodeQuotedPrintable(CharSequence s, Charset charset)
+    {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(s.length());
+        int literal = 0;                                /// the start of the chars since the last escape
+        for (int i = 0; i < s.length(); ++i)
+        {
+            if (s.charAt(i) == '=' && i + 2 < s.length())
+            {
+                int hi = Character.digit(s.charAt(i + 1), 16);
+                int lo = Character.digit(s.charAt(i + 2), 16);
+                if (hi >= 0 && lo >= 0)
+                {
+                    writeChars(decoded, s, literal, i);
+                    decoded.write(hi * 16 + lo);
+                    i += 2;
+                    literal = i + 1;
+                }
+            }
+        }
+        writeChars(decoded, s, literal, s.length());
+        return new String(decoded.toByteArray(), charset);
+    }
+
+    private static void writeChars(ByteArrayOutputStream out, CharSequence s, int from, int to)
+    {
+        if (from < to)
+        {
+            byte[] bytes = s.subSequence(from, to).toString().getBytes(READ_CHARSET);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    // Removes the tags, entities and the content of style and script elements, they are replaced by spaces
+    private String stripHtml(String line)
+    {
+        StringBuilder text = new StringBuilder(line.length());
+
+        for (int i = 0; i < line.length(); ++i)
+        {
+            char c = line.charAt(i);
+
+            if (inTag)
+            {
+                if (c == '>')
+                {
+                    inTag = false;
+                    String name = tagName();
+                    if (skipUntil == null && (name.equals("style") || name.equals("script")))
+                    {
+                        skipUntil = "/" + name;
+                    }
+                    else if (name.equals(skipUntil))
+                    {
+                        skipUntil = null;
+                    }
+                }
+                else if (tag.length() < 8)
+                {
+                    tag.append(c);
+                }
+                continue;
+            }
+
+            if (c == '<')
+            {
+                inTag = true;
+                tag.setLength(0);
+                text.append(' ');
+            }
+            else if (skipUntil != null)
+            {
+                continue;
+            }
+            else if (c == '&')
+            {
+                int end = i + 1;
+                while (end < line.length() && end - i <= 8 && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '#'))
+                {
+                    ++end;
+                }
+                if (end < line.length() && line.charAt(end) == ';')     /// an entity like &nbsp; or &#39;
+                {
+                    i = end;
+                }
+                text.append(' ');
+            }
+            else
+            {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.HashMap;
+
+public class ModelSnapshot
+{
+    // An immutable copy of the Bayespam model that the classifiers read without locking: the priors, and
+    // the likelihoods of every word of the vocabulary (computed when the snapshot is taken) or, in hashing
+    // mode, a copy of the bucket counts with the word totals. Training changes the working model and then
+    // publishes a new snapshot (see Bayespam.publish()), a classifier keeps the snapshot it started with.
+
+    private final int version;
+    private final double priorNormal;
+    private final double priorSpam;
+
+    ///The normal and spam likelihood per word, null in hashing mode
+    private final HashMap<String, double[]> likelihoods;
+
+    ///In hashing mode: the counts, the word totals and the likelihood of a zero count
+    private final HashedCounts hashed;
+    private final double normalWords;
+    private final double spamWords;
+    private final double zero;
+
+    ///The largest difference of the likelihoods of a word (see maxDelta())
+    private final double maxDelta;
+
+    ModelSnapshot(int version, double priorNormal, double priorSpam, HashMap<String, double[]> likelihoods)
+    {
+        this.version = version;
+        this.priorNormal = priorNormal;
+        this.priorSpam = priorSpam;
+        this.likelihoods = likelihoods;
+        this.hashed = null;
+        this.normalWords = 0;
+        this.spamWords = 0;
+        this.zero = 0;
+        this.maxDelta = computeMaxDelta();
+    }
+
+    ModelSnapshot(int version, double priorNormal, double priorSpam, HashedCounts hashed,
+        double normalWords, double spamWords, double zero)
+    {
+        this.version = version;
+        this.priorNormal = priorNormal;
+        this.priorSpam = priorSpam;
+        this.likelihoods = null;
+        this.hashed = hashed;
+        this.normalWords = normalWords;
+        this.spamWords = spamWords;
+        this.zero = zero;
+        this.maxDelta = computeMaxDelta();
+    }
+
+    // The version of the working model the snapshot was taken of
+    public int version()
+    {
+        return version;
+    }
+
+    public double priorNormal()
+    {
+        return priorNormal;
+    }
+
+    public double priorSpam()
+    {
+        return priorSpam;
+    }
+
+    public boolean isKnown(String word)
+    {
+        return hashed != null ? hashed.contains(word) : likelihoods.containsKey(word);
+    }
+
+    // The likelihoods of a word that isKnown()
+    public double normalLikelihood(String word)
+    {
+        return hashed != null ? likelihood(hashed.regularCount(word), normalWords) : likelihoods.get(word)[0];
+    }
+
+    public double spamLikelihood(String word)
+    {
+        return hashed != null ? likelihood(hashed.spamCount(word), spamWords) : likelihoods.get(word)[1];
+    }
+
+    ///The same computation as Bayespam.getNormalLikelihood() and getSpamLikelihood()
+    private double likelihood(int count, double words)
+    {
+        double d = count / words;
+        return Math.log(d > 0 ? d : zero);
+    }
+
+    // The most a single word can change pNormal - pSpam (see Bayespam.classifyEarly())
+    public double maxDelta()
+    {
+        return maxDelta;
+    }
+
+    ///Computed when the snapshot is taken, so the classifiers read it without locking
+    private double computeMaxDelta()
+    {
+        double max = 0;
+
+        if (hashed != null)
+        {
+            for (int b = 0; b < hashed.buckets(); ++b)
+            {
+                if (hashed.regularAt(b) + hashed.spamAt(b) > 0)
+                {
+                    max = Math.max(max, Math.abs(likelihood(hashed.regularAt(b), normalWords)
+                        - likelihood(hashed.spamAt(b), spamWords)));
+                }
+            }
+        }
+        else
+        {
+            for (double[] l : likelihoods.values())
+            {
+                max = Math.max(max, Math.abs(l[0] - l[1]));
+            }
+        }
+        return max;
+    }
+}
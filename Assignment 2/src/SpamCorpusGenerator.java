@@ -0,0 +1,184 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class SpamCorpusGenerator
+{
+    // Writes a synthetic corpus in the layout of spam-filter, so Bayespam and BigramBayespam can be run at any scale:
+    //   <dir>/train/regular/regular-0000001.msg ... <dir>/train/spam/spam-0000001.msg ... and the same under test/
+    // Usage:
+    //   java SpamCorpusGenerator <dir> [messages=10000] [spam=0.5] [test=0.25] [vocabulary=50000] [length=200]
+    //                                  [topic=0.2] [zipf=1.0] [seed=42]
+    // Every message has a few mail headers and a body of about length words. The words are drawn from a Zipf
+    // distribution (exponent zipf) over a made up vocabulary, a fraction topic of them from a class specific
+    // vocabulary instead, which is what the classifiers can learn. Messages are written one at a time,
+    // so only the vocabularies are kept in memory, whatever the size of the corpus.
+
+    private final Random rnd;
+    private final double spam;
+
+    private final String[] vocabulary;
+    private final String[] regularTopic;
+    private final String[] spamTopic;
+
+    // Cumulative Zipf weights of the ranks of the vocabularies, the topics use the first part
+    private final double[] cumulative;
+
+    private final int length;
+    private final double topic;
+
+    public SpamCorpusGenerator(int vocabularySize, int length, double spam, double topic, double zipf, long seed)
+    {
+        this.rnd = new Random(seed);
+        this.length = length;
+        this.spam = spam;
+        this.topic = topic;
+
+        vocabulary = words(vocabularySize);
+        regularTopic = words(Math.max(1, vocabularySize / 20));
+        spamTopic = words(Math.max(1, vocabularySize / 20));
+
+        cumulative = new double[vocabularySize];
+        double sum = 0;
+        for (int rank = 0; rank < vocabularySize; rank++)
+        {
+            cumulative[rank] = sum += 1.0 / Math.pow(rank + 1, zipf);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java SpamCorpusGenerator <dir> [messages=10000] [spam=0.5] [test=0.25] [vocabulary=50000]"
+                    + " [length=200] [topic=0.2] [zipf=1.0] [seed=42]");
+            return;
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("messages", "10000");
+        params.put("spam", "0.5");
+        params.put("test", "0.25");
+        params.put("vocabulary", "50000");
+        params.put("length", "200");
+        params.put("topic", "0.2");
+        params.put("zipf", "1.0");
+        params.put("seed", "42");
+        for (int i = 1; i < args.length; i++)
+        {
+            int is = args[i].indexOf('=');
+            params.put(args[i].substring(0, is), args[i].substring(is + 1));
+        }
+
+        SpamCorpusGenerator generator = new SpamCorpusGenerator(Integer.parseInt(params.get("vocabulary")),
+                Integer.parseInt(params.get("length")), Double.parseDouble(params.get("spam")),
+                Double.parseDouble(params.get("topic")), Double.parseDouble(params.get("zipf")),
+                Long.parseLong(params.get("seed")));
+
+        long start = System.currentTimeMillis();
+        int messages = Integer.parseInt(params.get("messages"));
+        generator.write(new File(args[0]), messages, Double.parseDouble(params.get("test")));
+
+        System.out.println("Wrote " + messages + " messages to " + args[0] + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Writes the messages, a fraction test of them to test/ and the rest to train/
+    public void write(File dir, int messages, double test) throws IOException
+    {
+        File[] dirs = new File[4];
+        String[] sets = { "train", "test" };
+        String[] types = { "regular", "spam" };
+        int[] counts = new int[4];
+
+        for (int d = 0; d < 4; d++)
+        {
+            dirs[d] = new File(dir, sets[d / 2] + File.separator + types[d % 2]);
+            if (!dirs[d].isDirectory() && !dirs[d].mkdirs())
+            {
+                throw new IOException("can't create " + dirs[d]);
+            }
+        }
+
+        for (int m = 0; m < messages; m++)
+        {
+            int d = (m < messages * (1 - test) ? 0 : 2) + (rnd.nextDouble() < spam ? 1 : 0);
+            String name = String.format("%s-%07d.msg", types[d % 2], ++counts[d]);
+
+            File file = new File(dirs[d], name);
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            writeMessage(out, d % 2 == 1);
+            out.close();
+            if (out.checkError())                       /// a PrintWriter doesn't throw, e.g. when the disk is full
+            {
+                throw new IOException("error writing " + file);
+            }
+        }
+    }
+
+    public void writeMessage(PrintWriter out, boolean isSpam)
+    {
+        String[] topicWords = isSpam ? spamTopic : regularTopic;
+
+        out.println("From: " + address(topicWords) + "@" + address(vocabulary) + ".com");
+        out.println("To: " + address(vocabulary) + "@example.org");
+        out.print("Subject:");
+        int subjectWords = 3 + rnd.nextInt(5);          /// 3 to 7 words, all equally likely
+        for (int w = 0; w < subjectWords; w++)
+        {
+            out.print(" " + (rnd.nextDouble() < topic ? word(topicWords) : word(vocabulary)));
+        }
+        out.println();
+        out.println();
+
+        // Exponentially distributed lengths, most messages are short
+        int words = 1 + (int) (-Math.log(1 - rnd.nextDouble()) * length);
+        for (int w = 0; w < words; w++)
+        {
+            out.print(rnd.nextDouble() < topic ? word(topicWords) : word(vocabulary));
+            out.print(w % 12 == 11 || w == words - 1 ? "\n" : " ");
+        }
+    }
+
+    // A word of the given vocabulary by its Zipf rank
+    private String word(String[] words)
+    {
+        double sum = cumulative[words.length - 1];
+        int rank = Arrays.binarySearch(cumulative, 0, words.length, rnd.nextDouble() * sum);
+
+        return words[rank < 0 ? -rank - 1 : rank];
+    }
+
+    // A word without punctuation, for the mail addresses
+    private String address(String[] words)
+    {
+        return word(words).replaceAll("[,.]", "").toLowerCase();
+    }
+
+    // Random lowercase words of 3 to 12 letters, sometimes capitalized or with punctuation like real text
+    private String[] words(int count)
+    {
+        String[] words = new String[count];
+        for (int w = 0; w < count; w++)
+        {
+            char[] word = new char[3 + rnd.nextInt(10)];
+            for (int c = 0; c < word.length; c++)
+            {
+                word[c] = (char) ('a' + rnd.nextInt(26));
+            }
+
+            if (rnd.nextInt(10) == 0)
+            {
+                word[0] = Character.toUpperCase(word[0]);
+            }
+
+            words[w] = new String(word) + (rnd.nextInt(20) == 0 ? "," : rnd.nextInt(40) == 0 ? "." : "");
+        }
+        return words;
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.*;
+import java.util.*;
+
+public class ClusteringOperations implements benchmarks.Clustering
+{
+	// The operations of the benchmarks (see benchmarks.Clustering), on data generated with a fixed seed
+
+	private static final long SEED = 42;
+
+	private final int dim;
+	private final int k;
+	private final int n;
+
+	private final Vector<float[]> data;
+	private final float[] user;
+	private final float[][] prototypes;
+	private final Distance.Kernel kernel;
+
+	private final KMeans kmeans;
+	private final Kohonen kohonen;
+
+	private final File trainFile;
+	private final File otherFile;
+
+	public ClusteringOperations(int rows, int dim, int k, int n, String kernel) throws Exception
+	{
+		this.dim = dim;
+		this.k = k;
+		this.n = n;
+
+		// The algorithms print their progress
+		System.setOut(new PrintStream(new OutputStream() { public void write(int b) {} }));
+
+		UsageDataGenerator generator = new UsageDataGenerator(dim, k, 0.3, 0.05, SEED);
+		data = new Vector<float[]>(rows);
+		for (int i = 0; i < rows; i++) {
+			float[] row = new float[dim];
+			generator.nextClient(row, null);
+			data.add(row);
+		}
+		user = data.get(0);
+
+		Random rnd = new Random(SEED);
+		prototypes = new float[k][];
+		for (int c = 0; c < k; c++)
+			prototypes[c] = data.get(rnd.nextInt(rows));
+
+		this.kernel = kernel.equals("vector")
+				? (Distance.Kernel) Class.forName("VectorDistance").getDeclaredConstructor().newInstance()
+				: new Distance.Scalar();
+
+		kmeans = newKMeans();
+		kmeans.train();
+		kohonen = new Kohonen(n, 1, data, data, dim);
+
+		// The test, requests and clients files only have one line
+		trainFile = File.createTempFile("train", ".dat");
+		otherFile = File.createTempFile("other", ".dat");
+		trainFile.deleteOnExit();
+		otherFile.deleteOnExit();
+		write(rows, trainFile);
+		write(1, otherFile);
+	}
+
+	private KMeans newKMeans()
+	{
+		KMeans result = new KMeans(k, data, data, dim);
+		result.setSeed(SEED);
+		return result;
+	}
+
+	public double squared()
+	{
+		return kernel.squared(user, prototypes[0], dim);
+	}
+
+	public int nearest()
+	{
+		return kernel.nearest(user, prototypes, dim);
+	}
+
+	public void partition()
+	{
+		kmeans.partition();
+	}
+
+	public void calculateProtoypes()
+	{
+		kmeans.calculateProtoypes();
+	}
+
+	public void train()
+	{
+		newKMeans().train();
+	}
+
+	public int findBMU()
+	{
+		Kohonen.Coordinate bmu = kohonen.findBMU(user);
+		return bmu.x * n + bmu.y;
+	}
+
+	public void epoch()
+	{
+		new Kohonen(n, 1, data, data, dim).train();
+	}
+
+	public void readData()
+	{
+		RunClustering.readData(trainFile.getPath(), otherFile.getPath(), otherFile.getPath(), otherFile.getPath());
+	}
+
+	private void write(int count, File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		for (int row = 0; row < count; row++) {
+			float[] values = data.get(row);
+			for (int url = 0; url < values.length; url++)
+				out.print(values[url] + (url + 1 < values.length ? " " : "\n"));
+		}
+		out.close();
+	}
+}
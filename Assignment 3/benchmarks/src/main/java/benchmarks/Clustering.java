@@ -0,0 +1,40 @@
+package benchmarks;
+
+public interface Clustering
+{
+	// The benchmarked operations on synthetic data shaped like train.dat (binary client x url rows drawn
+	// around k planted clusters by UsageDataGenerator). The clustering classes are in the default package,
+	// which JMH benchmarks can't be in and can't import from, so the operations are implemented by
+	// ClusteringOperations in the default package and loaded by name.
+
+	// ||x - p||^2 of the first row and a prototype, with the kernel the operations were loaded with
+	double squared();
+
+	// Index of the prototype closest to the first row
+	int nearest();
+
+	// One assignment step and one prototype update of a trained KMeans
+	void partition();
+
+	void calculateProtoypes();
+
+	// Trains a new KMeans
+	void train();
+
+	// The BMU of the first row in an untrained map, as x * n + y
+	int findBMU();
+
+	// Trains a new map for one epoch
+	void epoch();
+
+	// Reads a train file of all rows with RunClustering
+	void readData();
+
+	// kernel is "scalar" or "vector" (see Distance), the algorithms use the kernel Distance chose
+	static Clustering load(int rows, int dim, int k, int n, String kernel) throws ReflectiveOperationException
+	{
+		return (Clustering) Class.forName("ClusteringOperations")
+				.getDeclaredConstructor(int.class, int.class, int.class, int.class, String.class)
+				.newInstance(rows, dim, k, n, kernel);
+	}
+}
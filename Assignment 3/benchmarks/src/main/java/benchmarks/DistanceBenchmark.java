@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The distance kernels, scalar and Vector API (see Distance)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class DistanceBenchmark
+{
+	@Param({"200", "1000"})
+	int dim;
+
+	@Param({"8"})
+	int k;
+
+	@Param({"scalar", "vector"})
+	String kernel;
+
+	Clustering clustering;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException
+	{
+		clustering = Clustering.load(k, dim, k, 1, kernel);
+	}
+
+	@Benchmark
+	public double squared()
+	{
+		return clustering.squared();
+	}
+
+	@Benchmark
+	public int nearest()
+	{
+		return clustering.nearest();
+	}
+}
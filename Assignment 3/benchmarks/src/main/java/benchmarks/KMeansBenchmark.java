@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The two steps of a k-means iteration on a trained model, and a whole training from a random partition
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KMeansBenchmark
+{
+	@Param({"1000"})
+	int rows;
+
+	@Param({"200"})
+	int dim;
+
+	@Param({"8"})
+	int k;
+
+	Clustering clustering;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException
+	{
+		clustering = Clustering.load(rows, dim, k, 1, "scalar");
+	}
+
+	@Benchmark
+	public void partition()
+	{
+		clustering.partition();
+	}
+
+	@Benchmark
+	public void calculateProtoypes()
+	{
+		clustering.calculateProtoypes();
+	}
+
+	@Benchmark
+	public void train()
+	{
+		clustering.train();
+	}
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The BMU search of an n x n map, and one epoch (with the final pass that assigns every row to its BMU)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KohonenBenchmark
+{
+	@Param({"1000"})
+	int rows;
+
+	@Param({"200"})
+	int dim;
+
+	@Param({"8"})
+	int k;
+
+	@Param({"4"})
+	int n;
+
+	Clustering clustering;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException
+	{
+		clustering = Clustering.load(rows, dim, k, n, "scalar");
+	}
+
+	@Benchmark
+	public int findBMU()
+	{
+		return clustering.findBMU();
+	}
+
+	@Benchmark
+	public void epoch()
+	{
+		clustering.epoch();
+	}
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// RunClustering.readData of a train file with rows rows, the other files have one line
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadDataBenchmark
+{
+	@Param({"1000"})
+	int rows;
+
+	@Param({"200"})
+	int dim;
+
+	Clustering clustering;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException
+	{
+		clustering = Clustering.load(rows, dim, 8, 1, "scalar");
+	}
+
+	@Benchmark
+	public void readData()
+	{
+		clustering.readData();
+	}
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.util.*;
+
+public class AccessLogIngester
+{
+	// This class reads web server access logs in Common Log Format as a stream, e.g.
+	//   piweba3y.prodigy.com - - [01/Jul/1995:00:00:01 -0400] "GET /ksc.html HTTP/1.0" 200 7074
+	// and feeds every new (client, url) request to a trained clustering algorithm,
+	// so the model follows the log without exporting train.dat and retraining.
+
+	private ClusteringAlgorithm ca;
+
+	// The requests.dat and clients.dat lookup lists, new urls and hosts are appended
+	private Vector<String> requestsVector;
+	private Vector<String> clientsVector;
+
+	// Reverse lookups of the lists above (url/host -> id)
+	private Hashtable<String, Integer> requestIds;
+	private Hashtable<String, Integer> clientIds;
+
+	// The current request vector of every client, indexed by client id
+	private Vector<float[]> clientData;
+
+	// Statistics of the last ingest()
+	private int lines;
+	private int skipped;
+	private int updates;
+
+	public AccessLogIngester(ClusteringAlgorithm ca, Vector<String> requestsVector, Vector<String> clientsVector, Vector<float[]> trainData)
+	{
+		this.ca = ca;
+		this.requestsVector = requestsVector;
+		this.clientsVector = clientsVector;
+
+		requestIds = new Hashtable<String, Integer>();
+		for (int i = 0; i < requestsVector.size(); i++)
+			requestIds.put(requestsVector.get(i), i);
+
+		clientIds = new Hashtable<String, Integer>();
+		for (int i = 0; i < clientsVector.size(); i++)
+			clientIds.put(clientsVector.get(i), i);
+
+		// The clients in the train data are in the same order as in clients.dat
+		clientData = new Vector<float[]>(trainData);
+	}
+
+	// Reads the log until the end of the stream, updating the model for every request that is new for its client
+	public void ingest(BufferedReader br) throws IOException
+	{
+		lines = 0;
+		skipped = 0;
+		updates = 0;
+
+		String line;
+		while ((line = br.readLine()) != null) {
+			lines++;
+
+			if (!ingestLine(line))
+				skipped++;
+		}
+	}
+
+	// Returns false if the line is not a successful request of a html page
+	public boolean ingestLine(String line)
+	{
+		// The request is the part between the first two quotes: "GET /url HTTP/1.0"
+		int space = line.indexOf(' ');
+		int open = line.indexOf('"');
+		int close = line.indexOf('"', open + 1);
+		if (space <= 0 || open < 0 || close < 0)
+			return false;
+
+		StringTokenizer request = new StringTokenizer(line.substring(open + 1, close));
+		StringTokenizer status = new StringTokenizer(line.substring(close + 1));
+		if (request.countTokens() < 2 || !status.hasMoreTokens())
+			return false;
+
+		request.nextToken();
+		String url = request.nextToken();
+		if (!url.endsWith(".html"))
+			return false;
+
+		try {
+			int code = Integer.parseInt(status.nextToken());
+			if (code < 200 || code >= 400)
+				return false;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+
+		int client = lookup(line.substring(0, space), clientIds, clientsVector);
+		int page = lookup(url, requestIds, requestsVector);
+
+		while (clientData.size() <= client)
+			clientData.add(new float[0]);
+
+		float[] data = clientData.get(client);
+		if (page < data.length && data[page] == 1.0f)
+			return true;		// nothing new for this client
+
+		// Rows are never changed in place, the algorithm may still need the old vector
+		data = Arrays.copyOf(data, Math.max(data.length, requestsVector.size()));
+		data[page] = 1.0f;
+		clientData.set(client, data);
+
+		if (ca.update(client, data))
+			updates++;
+
+		return true;
+	}
+
+	private static int lookup(String key, Hashtable<String, Integer> ids, Vector<String> names)
+	{
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = names.size();
+			names.addElement(key);
+			ids.put(key, id);
+		}
+		return id;
+	}
+
+	public void showIngest()
+	{
+		System.out.println("Log lines read: " + lines + " (skipped " + skipped + ")");
+		System.out.println("Model updates: " + updates);
+		System.out.println("Clients: " + clientsVector.size() + " | Requests: " + requestsVector.size());
+	}
+}
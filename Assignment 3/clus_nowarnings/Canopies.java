@@ -0,0 +1,123 @@
+import java.util.*;
+
+public class Canopies
+{
+	// Canopy pre-clustering (McCallum et al.) with the Hamming distance of the binarized rows as the cheap
+	// distance: a random remaining row becomes the center of a canopy, every row within t1 of the center is in
+	// the canopy and the rows within t2 (<= t1) can't become a center any more. Repeated until no rows remain.
+	// The canopies overlap, a row can be in several of them. KMeans only compares a row with the prototypes
+	// that share a canopy with it, and can start from the centers of the largest canopies.
+
+	private final int dim;
+	private final double t1;
+
+	// Binarized rows of the canopy centers
+	private Vector<long[]> centers = new Vector<long[]>();
+	private Vector<float[]> centerRows = new Vector<float[]>();
+	private Vector<Integer> sizes = new Vector<Integer>();
+
+	// The canopies of every row
+	private int[][] rowCanopies;
+
+	public Canopies(Vector<float[]> data, int dim, double t1, double t2, Random randomizer)
+	{
+		this.dim = dim;
+		this.t1 = t1;
+
+		long[][] bits = new long[data.size()][];
+		for (int row = 0; row < bits.length; row++)
+			bits[row] = bits(data.get(row));
+
+		int[] counts = new int[bits.length];
+		rowCanopies = new int[bits.length][1];
+
+		int[] remaining = new int[bits.length];
+		for (int row = 0; row < remaining.length; row++)
+			remaining[row] = row;
+		int left = remaining.length;
+
+		while (left > 0) {
+			int center = remaining[randomizer.nextInt(left)];
+			int canopy = centers.size();
+			int size = 0;
+
+			for (int row = 0; row < bits.length; row++) {
+				if (hamming(bits[center], bits[row]) <= t1) {
+					if (counts[row] == rowCanopies[row].length)
+						rowCanopies[row] = Arrays.copyOf(rowCanopies[row], counts[row] * 2);
+					rowCanopies[row][counts[row]++] = canopy;
+					size++;
+				}
+			}
+
+			centers.add(bits[center]);
+			centerRows.add(data.get(center));
+			sizes.add(size);
+
+			// Rows close to the center (at least the center itself) are no candidates any more
+			int kept = 0;
+			for (int i = 0; i < left; i++)
+				if (hamming(bits[center], bits[remaining[i]]) > t2)
+					remaining[kept++] = remaining[i];
+			left = kept;
+		}
+
+		for (int row = 0; row < bits.length; row++)
+			rowCanopies[row] = Arrays.copyOf(rowCanopies[row], counts[row]);
+	}
+
+	public int size()
+	{
+		return centers.size();
+	}
+
+	// Number of rows in the canopy
+	public int canopySize(int canopy)
+	{
+		return sizes.get(canopy);
+	}
+
+	public float[] center(int canopy)
+	{
+		return centerRows.get(canopy);
+	}
+
+	public int[] canopiesOf(int row)
+	{
+		return rowCanopies[row];
+	}
+
+	// The canopies whose center is within t1 of the (binarized) prototype
+	public int[] canopiesNear(float[] prototype)
+	{
+		long[] bits = bits(prototype);
+		int[] result = new int[centers.size()];
+		int count = 0;
+
+		for (int canopy = 0; canopy < centers.size(); canopy++)
+			if (hamming(bits, centers.get(canopy)) <= t1)
+				result[count++] = canopy;
+
+		return Arrays.copyOf(result, count);
+	}
+
+	// One bit per url, set if the value is at least 0.5 (requested, or requested by most members of a cluster)
+	private long[] bits(float[] row)
+	{
+		long[] bits = new long[(dim + 63) / 64];
+		for (int url = 0; url < dim; url++)
+			if (row[url] >= 0.5f)
+				bits[url >> 6] |= 1L << url;
+
+		return bits;
+	}
+
+	private static int hamming(long[] a, long[] b)
+	{
+		int distance = 0;
+		for (int i = 0; i < a.length; i++)
+			distance += Long.bitCount(a[i] ^ b[i]);
+
+		return distance;
+	}
+}
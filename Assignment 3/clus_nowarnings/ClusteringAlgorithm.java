@@ -1,14 +1,198 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
 public abstract class ClusteringAlgorithm
 {
+	// Serving state, built from the trained clusters and never changed afterwards, so any number of
+	// threads can serve from it without locking. resetPrefetch() drops it, the next prefetch builds a new one.
+	private static class PrefetchState
+	{
+		final int[][] prefetchLists;	// per cluster the url ids with a prototype value >= prefetchThreshold
+		final int[] clientClusters;		// client id -> cluster, -1 if the client is not a member
+		final float[][] prototypes;		// copies, the clusters may be retrained while serving
+		final int generation;			// the resetPrefetch() generation it was built in
+
+		PrefetchState(int[][] prefetchLists, int[] clientClusters, float[][] prototypes, int generation)
+		{
+			this.generation = generation;
+			this.prefetchLists = prefetchLists;
+			this.clientClusters = clientClusters;
+			this.prototypes = prototypes;
+		}
+	}
+
+	private volatile PrefetchState prefetchState;
+	private volatile int prefetchGeneration;
+
+	// The urls (requests.dat) the url ids are mapped to
+	private Vector<String> requests;
+
+	// Listeners that receive the metrics of every training iteration
+	private Vector<TrainingListener> trainingListeners = new Vector<TrainingListener>();
+
 	public abstract boolean train();
 
 	public abstract boolean test();
 	
 	public abstract void setPrefetchThreshold(double prefetchThreshold);    
+
+	public abstract double getPrefetchThreshold();
 	
 	public abstract void showTest();
 	
 	public abstract void showMembers();
 	
 	public abstract void showPrototypes();
+
+	// Incrementally learn the (new) request vector of client id on an already trained model.
+	// Algorithms that can't be updated online return false.
+	public boolean update(int id, float[] data)
+	{
+		return false;
+	}
+
+	public void addTrainingListener(TrainingListener listener)
+	{
+		trainingListeners.add(listener);
+	}
+
+	// Measuring the error and the changed members costs time, so it is only done when someone listens
+	protected boolean hasTrainingListeners()
+	{
+		return !trainingListeners.isEmpty();
+	}
+
+	protected void fireIteration(TrainingMetrics metrics)
+	{
+		metrics.finish();
+		for (int i = 0; i < trainingListeners.size(); i++)
+			trainingListeners.get(i).iteration(metrics);
+	}
+
+	// Pads every row of the data with zeros up to the (grown) dimensionality
+	protected static void padRows(Vector<float[]> data, int dim)
+	{
+		for (int i = 0; i < data.size(); i++) {
+			float[] row = data.get(i);
+			if (row.length < dim)
+				data.set(i, Arrays.copyOf(row, dim));
+		}
+	}
+
+	// The following members describe the trained clusters, so the prefetch lists can be built
+	// without knowing how the clusters of an algorithm are organized
+	protected abstract int clusterCount();
+
+	protected abstract float[] clusterPrototype(int cluster);
+
+	protected abstract Set<Integer> clusterMembers(int cluster);
+
+	// The parameters the algorithm was created with, and restoring trained clusters (see ModelStore)
+	protected abstract double[] parameters();
+
+	protected abstract void restoreClusters(float[][] prototypes, List<Set<Integer>> members);
+
+	// Has to be called whenever the prototypes, members or prefetchThreshold change
+	protected synchronized void resetPrefetch()
+	{
+		prefetchGeneration++;
+		prefetchState = null;
+	}
+
+	public void setRequests(Vector<String> requests)
+	{
+		this.requests = requests;
+	}
+
+	// Which urls should be prefetched for this (known) client? Empty if the client isn't a member of any cluster.
+	// The caller gets its own copy of the list.
+	public int[] prefetch(int client)
+	{
+		if (client < 0)
+			throw new IllegalArgumentException("client id " + client + " is negative");
+
+		PrefetchState state = prefetchState();
+		int cluster = client < state.clientClusters.length ? state.clientClusters[client] : -1;
+
+		return cluster < 0 ? new int[0] : state.prefetchLists[cluster].clone();
+	}
+
+	// Which urls should be prefetched for an unseen client with this request vector? Uses the nearest prototype.
+	public int[] prefetch(float[] data)
+	{
+		PrefetchState state = prefetchState();
+
+		double minDistance = Double.MAX_VALUE;
+		int chosenCluster = -1;
+		for (int cluster = 0; cluster < state.prototypes.length; cluster++) {
+			float[] prototype = state.prototypes[cluster];
+			double distance = Distance.squared(data, prototype, Math.min(data.length, prototype.length));
+
+			if (distance < minDistance) {
+				minDistance = distance;
+				chosenCluster = cluster;
+			}
+		}
+
+		return chosenCluster < 0 ? new int[0] : state.prefetchLists[chosenCluster].clone();
+	}
+
+	// Maps url ids to their urls in requests.dat
+	public String[] prefetchUrls(int[] urls)
+	{
+		String[] result = new String[urls.length];
+		for (int i = 0; i < urls.length; i++)
+			result[i] = requests != null && urls[i] < requests.size() ? requests.get(urls[i]) : String.valueOf(urls[i]);
+
+		return result;
+	}
+
+	// The current serving state, built if there is none. Threads that find none at the same time may each
+	// build one, they are equal. A state built before the last resetPrefetch() is never used.
+	private PrefetchState prefetchState()
+	{
+		PrefetchState state = prefetchState;
+		if (state == null || state.generation != prefetchGeneration) {
+			state = buildPrefetch(prefetchGeneration);
+			prefetchState = state;
+		}
+		return state;
+	}
+
+	private PrefetchState buildPrefetch(int generation)
+	{
+		double threshold = getPrefetchThreshold();
+		int clients = 0;
+
+		int[][] prefetchLists = new int[clusterCount()][];
+		float[][] prototypes = new float[prefetchLists.length][];
+		for (int cluster = 0; cluster < prefetchLists.length; cluster++) {
+			float[] prototype = clusterPrototype(cluster).clone();
+			prototypes[cluster] = prototype;
+
+			int count = 0;
+			for (int url = 0; url < prototype.length; url++)
+				if (prototype[url] >= threshold)
+					count++;
+
+			prefetchLists[cluster] = new int[count];
+			count = 0;
+			for (int url = 0; url < prototype.length; url++)
+				if (prototype[url] >= threshold)
+					prefetchLists[cluster][count++] = url;
+
+			for (int client : clusterMembers(cluster))
+				clients = Math.max(clients, client + 1);
+		}
+
+		int[] clientClusters = new int[clients];
+		Arrays.fill(clientClusters, -1);
+		for (int cluster = 0; cluster < prefetchLists.length; cluster++)
+			for (int client : clusterMembers(cluster))
+				clientClusters[client] = cluster;
+
+		return new PrefetchState(prefetchLists, clientClusters, prototypes, generation);
+	}
 }
@@ -0,0 +1,43 @@
+import java.io.*;
+
+public class CsvTrainingListener implements TrainingListener
+{
+	// Writes one line per training iteration to a CSV file, the columns are
+	// algorithm,iteration,wall_ms,<phase>_ms...,metrics_ms,changed,error,allocated_bytes,allocation_mb_s
+	// The header is repeated whenever the phases change (another algorithm is trained).
+	// The file is closed after every training and appended to by the next one.
+
+	private PrintWriter out;
+	private String header;
+
+	public CsvTrainingListener(String fileName, boolean append) throws IOException
+	{
+		out = new PrintWriter(new BufferedWriter(new FileWriter(fileName, append)));
+	}
+
+	public void iteration(TrainingMetrics metrics)
+	{
+		StringBuilder columns = new StringBuilder("algorithm,iteration,wall_ms");
+		for (String phase : metrics.phases)
+			columns.append(',').append(phase).append("_ms");
+		columns.append(",metrics_ms,changed,error,allocated_bytes,allocation_mb_s");
+
+		if (!columns.toString().equals(header)) {
+			header = columns.toString();
+			out.println(header);
+		}
+
+		out.print(metrics.algorithm + "," + metrics.iteration + "," + metrics.nanos / 1e6);
+		for (long nanos : metrics.phaseNanos)
+			out.print("," + nanos / 1e6);
+		out.println("," + metrics.metricsNanos / 1e6 + "," + metrics.changed + "," + metrics.error + "," + metrics.allocatedBytes + "," + metrics.allocationRate() / 1e6);
+
+		// Flush every line, so a running job can be followed
+		out.flush();
+	}
+
+	public void close()
+	{
+		out.close();
+	}
+}
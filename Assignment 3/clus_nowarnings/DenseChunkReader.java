@@ -0,0 +1,173 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class DenseChunkReader
+{
+	// Reads a data file in the train.dat format (one row of dim values per line) in chunks of a fixed number
+	// of rows, so files larger than the heap can be processed. The row buffers are reused: a chunk is only
+	// valid until the next call of next(). With overlap, a second chunk is read by a background thread
+	// while the caller works on the current one, so at most two chunks are in memory.
+
+	public static class Chunk
+	{
+		// rows[0 .. size-1] are the rows first .. first+size-1 of the file
+		public float[][] rows;
+		public int size;
+		public int first;
+
+		Chunk(int chunkRows, int dim)
+		{
+			rows = new float[chunkRows][dim];
+		}
+	}
+
+	private final String fileName;
+	private final int dim;
+	private final BufferedReader br;
+
+	// Rows read so far
+	private int rowsRead;
+
+	// Without overlap the same chunk is filled every time
+	private Chunk chunk;
+
+	// With overlap the reader thread takes empty chunks from free and puts full ones in full,
+	// a chunk with size 0 marks the end of the file
+	private BlockingQueue<Chunk> free;
+	private BlockingQueue<Chunk> full;
+	private Chunk current;
+	private Thread reader;
+	private volatile IOException error;
+
+	public DenseChunkReader(String fileName, int dim, int chunkRows, boolean overlap) throws IOException
+	{
+		this.fileName = fileName;
+		this.dim = dim;
+		br = new BufferedReader(new FileReader(fileName), 1 << 16);
+
+		if (!overlap) {
+			chunk = new Chunk(chunkRows, dim);
+			return;
+		}
+
+		free = new ArrayBlockingQueue<Chunk>(2);
+		full = new ArrayBlockingQueue<Chunk>(2);
+		free.add(new Chunk(chunkRows, dim));
+		free.add(new Chunk(chunkRows, dim));
+
+		reader = new Thread("DenseChunkReader " + fileName) {
+			public void run()
+			{
+				readAhead();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	// The number of values on the first line of the file
+	public static int dim(String fileName) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		String line = br.readLine();
+		br.close();
+
+		return line == null ? 0 : new StringTokenizer(line, " \t\n\r\f,").countTokens();
+	}
+
+	// The next chunk of rows, null at the end of the file (which is closed then)
+	public Chunk next() throws IOException
+	{
+		if (free == null) {
+			fill(chunk);
+			if (chunk.size > 0)
+				return chunk;
+
+			br.close();
+			return null;
+		}
+
+		// The previous chunk can be reused by the reader now
+		if (current != null)
+			free.add(current);
+
+		try {
+			current = full.take();
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while reading " + fileName);
+		}
+
+		if (current.size > 0)
+			return current;
+
+		if (error != null)
+			throw error;
+		return null;
+	}
+
+	private void readAhead()
+	{
+		try {
+			while (true) {
+				Chunk next = free.take();
+				try {
+					fill(next);
+				}
+				catch (IOException e) {
+					error = e;
+					next.size = 0;
+				}
+				catch (RuntimeException | Error e) {
+					// e.g. a malformed number or running out of memory, the caller must not wait forever
+					error = new IOException("error while reading " + fileName, e);
+					next.size = 0;
+				}
+				full.put(next);
+
+				if (next.size == 0)
+					break;
+			}
+		}
+		catch (InterruptedException e) {
+			// closed, nobody waits for the rest of the file
+		}
+		finally {
+			try {
+				br.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	// Stops reading before the end of the file
+	public void close() throws IOException
+	{
+		if (reader != null)
+			reader.interrupt();
+		else
+			br.close();
+	}
+
+	private void fill(Chunk chunk) throws IOException
+	{
+		chunk.first = rowsRead;
+		chunk.size = 0;
+
+		String line;
+		while (chunk.size < chunk.rows.length && (line = br.readLine()) != null) {
+			StringTokenizer st = new StringTokenizer(line, " \t\n\r\f,");
+			if (st.countTokens() != dim)
+				throw new IOException(fileName + ": row " + (rowsRead + 1) + " has " + st.countTokens() + " values instead of " + dim);
+
+			float[] row = chunk.rows[chunk.size++];
+			for (int i = 0; i < dim; i++)
+				row[i] = Float.parseFloat(st.nextToken());
+
+			rowsRead++;
+		}
+	}
+}
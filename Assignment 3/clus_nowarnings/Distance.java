@@ -0,0 +1,211 @@
+public class Distance
+{
+	// The distance kernels shared by all clustering algorithms. Only squared Euclidian distances
+	// are computed: finding the closest prototype doesn't need the square root.
+	// The float kernels are chosen at startup: the Vector API kernel (VectorDistance, in clus_vector)
+	// when it is on the class path and the jdk.incubator.vector module is added, otherwise the scalar
+	// kernel below. -Dclustering.vector=false always uses the scalar kernel.
+	// Both sum the squared differences in double, like the original euclidianDist.
+
+	// The float kernels, implemented by Scalar and VectorDistance
+	public interface Kernel
+	{
+		// ||x - p||^2 over the first dim elements
+		double squared(float[] x, float[] p, int dim);
+
+		// Index of the prototype closest to x
+		int nearest(float[] x, float[][] prototypes, int dim);
+	}
+
+	private static final Kernel KERNEL = loadKernel();
+
+	private Distance()
+	{
+	}
+
+	private static Kernel loadKernel()
+	{
+		if (Boolean.parseBoolean(System.getProperty("clustering.vector", "true"))) {
+			try {
+				return (Kernel) Class.forName("VectorDistance").getDeclaredConstructor().newInstance();
+			}
+			catch (Throwable e) {
+				/// not on the class path, or the module isn't added (NoClassDefFoundError): use the scalar kernel
+			}
+		}
+		return new Scalar();
+	}
+
+	// The name of the kernel in use, for reports
+	public static String kernel()
+	{
+		return KERNEL.getClass().getName();
+	}
+
+	public static double squared(float[] x, float[] p, int dim)
+	{
+		return KERNEL.squared(x, p, dim);
+	}
+
+	public static int nearest(float[] x, float[][] prototypes, int dim)
+	{
+		return KERNEL.nearest(x, prototypes, dim);
+	}
+
+	// The loops are unrolled with independent sums, so the JIT can keep them in registers
+	static class Scalar implements Kernel
+	{
+		public double squared(float[] x, float[] p, int dim)
+		{
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int i = 0;
+
+			for (; i + 3 < dim; i += 4) {
+				double d0 = x[i] - p[i];
+				double d1 = x[i + 1] - p[i + 1];
+				double d2 = x[i + 2] - p[i + 2];
+				double d3 = x[i + 3] - p[i + 3];
+				s0 += d0 * d0;
+				s1 += d1 * d1;
+				s2 += d2 * d2;
+				s3 += d3 * d3;
+			}
+			for (; i < dim; i++) {
+				double d = x[i] - p[i];
+				s0 += d * d;
+			}
+
+			return s0 + s1 + s2 + s3;
+		}
+
+		// The prototypes are compared in blocks of four, so every element of x is loaded once
+		// per block instead of once per prototype.
+		public int nearest(float[] x, float[][] prototypes, int dim)
+		{
+			double min = Double.MAX_VALUE;
+			int best = 0;
+			int c = 0;
+
+			for (; c + 3 < prototypes.length; c += 4) {
+				float[] p0 = prototypes[c];
+				float[] p1 = prototypes[c + 1];
+				float[] p2 = prototypes[c + 2];
+				float[] p3 = prototypes[c + 3];
+				double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+				for (int i = 0; i < dim; i++) {
+					float xi = x[i];
+					double d0 = xi - p0[i];
+					double d1 = xi - p1[i];
+					double d2 = xi - p2[i];
+					double d3 = xi - p3[i];
+					s0 += d0 * d0;
+					s1 += d1 * d1;
+					s2 += d2 * d2;
+					s3 += d3 * d3;
+				}
+
+				if (s0 < min) { min = s0; best = c; }
+				if (s1 < min) { min = s1; best = c + 1; }
+				if (s2 < min) { min = s2; best = c + 2; }
+				if (s3 < min) { min = s3; best = c + 3; }
+			}
+			for (; c < prototypes.length; c++) {
+				double d = squared(x, prototypes[c], dim);
+				if (d < min) {
+					min = d;
+					best = c;
+				}
+			}
+
+			return best;
+		}
+	}
+
+	// The byte kernels sum the squared differences of BLOCK elements in ints, then add them to a long:
+	// BLOCK * 255^2 < 2^31, so a block can't overflow, and rows of any dimension can be compared
+	private static final int BLOCK = 32768;
+
+	// ||x - p||^2 of quantized rows (see QuantizedData), the bytes are unsigned
+	public static long squared(byte[] x, byte[] p, int dim)
+	{
+		long sum = 0;
+
+		for (int from = 0; from < dim; from += BLOCK) {
+			int to = Math.min(from + BLOCK, dim);
+			int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int i = from;
+
+			for (; i + 3 < to; i += 4) {
+				int d0 = (x[i] & 0xff) - (p[i] & 0xff);
+				int d1 = (x[i + 1] & 0xff) - (p[i + 1] & 0xff);
+				int d2 = (x[i + 2] & 0xff) - (p[i + 2] & 0xff);
+				int d3 = (x[i + 3] & 0xff) - (p[i + 3] & 0xff);
+				s0 += d0 * d0;
+				s1 += d1 * d1;
+				s2 += d2 * d2;
+				s3 += d3 * d3;
+			}
+			for (; i < to; i++) {
+				int d = (x[i] & 0xff) - (p[i] & 0xff);
+				s0 += d * d;
+			}
+
+			sum += s0 + s1 + s2 + s3;
+		}
+
+		return sum;
+	}
+
+	// Index of the quantized prototype closest to x, in blocks of four prototypes as in Scalar.nearest
+	public static int nearest(byte[] x, byte[][] prototypes, int dim)
+	{
+		long min = Long.MAX_VALUE;
+		int best = 0;
+		int c = 0;
+
+		for (; c + 3 < prototypes.length; c += 4) {
+			byte[] p0 = prototypes[c];
+			byte[] p1 = prototypes[c + 1];
+			byte[] p2 = prototypes[c + 2];
+			byte[] p3 = prototypes[c + 3];
+			long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+			for (int from = 0; from < dim; from += BLOCK) {
+				int to = Math.min(from + BLOCK, dim);
+				int t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+
+				for (int i = from; i < to; i++) {
+					int xi = x[i] & 0xff;
+					int d0 = xi - (p0[i] & 0xff);
+					int d1 = xi - (p1[i] & 0xff);
+					int d2 = xi - (p2[i] & 0xff);
+					int d3 = xi - (p3[i] & 0xff);
+					t0 += d0 * d0;
+					t1 += d1 * d1;
+					t2 += d2 * d2;
+					t3 += d3 * d3;
+				}
+
+				s0 += t0;
+				s1 += t1;
+				s2 += t2;
+				s3 += t3;
+			}
+
+			if (s0 < min) { min = s0; best = c; }
+			if (s1 < min) { min = s1; best = c + 1; }
+			if (s2 < min) { min = s2; best = c + 2; }
+			if (s3 < min) { min = s3; best = c + 3; }
+		}
+		for (; c < prototypes.length; c++) {
+			long d = squared(x, prototypes[c], dim);
+			if (d < min) {
+				min = d;
+				best = c;
+			}
+		}
+
+		return best;
+	}
+}
@@ -0,0 +1,385 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+
+public class DistributedKMeans extends ClusteringAlgorithm
+{
+	// K-means over several worker processes on this machine (see KMeansWorker). The coordinator starts the
+	// workers, which each load a partition of the train file and connect back over a loopback socket.
+	// Every iteration the coordinator broadcasts the prototypes, the workers assign their rows and return
+	// per cluster sums and counts, and the coordinator reduces them into the new prototypes.
+	// Training stops when no row changed cluster, like KMeans. With the same seed (KMeans.setSeed) the
+	// random partition is the same as in KMeans, so for 0/1 data (exact sums) the prototypes are identical.
+
+	// How long to wait for the workers to load their data and connect (ms)
+	private static final int CONNECT_TIMEOUT = 600000;
+
+	// How often to check whether a worker died before connecting while waiting (ms)
+	private static final int ACCEPT_TIMEOUT = 1000;
+
+	// Number of clusters
+	private int k;
+
+	// Dimensionality of the vectors
+	private int dim;
+
+	// Threshold above which the corresponding html is prefetched
+	private double prefetchThreshold;
+
+	private int workers;
+	private long seed;
+	private String trainFileName;
+
+	// The test data is kept here, only the training is distributed
+	private Vector<float[]> testData;
+
+	private float[][] prototypes;
+	private List<Set<Integer>> members;
+
+	// Connections to the workers, by worker index
+	private Socket[] sockets;
+	private DataInputStream[] ins;
+	private DataOutputStream[] outs;
+
+	// Reduced partial results of the last iteration
+	private double[][] sums;
+	private int[] counts;
+	private double error;
+
+	// Results of test()
+	private double hitrate;
+	private double accuracy;
+
+	public DistributedKMeans(int k, int workers, String trainFileName, Vector<float[]> testData, int dim)
+	{
+		this.k = k;
+		this.workers = workers;
+		this.trainFileName = trainFileName;
+		this.testData = testData;
+		this.dim = dim;
+		this.seed = new Random().nextLong();
+		prefetchThreshold = 0.5;
+
+		prototypes = new float[k][dim];
+		members = new ArrayList<Set<Integer>>();
+		for (int i = 0; i < k; i++)
+			members.add(new HashSet<Integer>());
+		sums = new double[k][dim];
+		counts = new int[k];
+	}
+
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	public boolean train()
+	{
+		Process[] processes = new Process[workers];
+		ServerSocket server = null;
+
+		try {
+			server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+			server.setSoTimeout(ACCEPT_TIMEOUT);
+
+			for (int i = 0; i < workers; i++)
+				processes[i] = new ProcessBuilder(workerCommand(server.getLocalPort(), i)).inheritIO().start();
+
+			System.out.println("RandomPartition");
+			connect(server, processes);
+			int changed = this.reduce();
+			this.calculateProtoypes();
+
+			int iteration = 0;
+			while (changed > 0) {
+				TrainingMetrics metrics = new TrainingMetrics("distributed k-means", iteration++);
+
+				System.out.println("Partition");
+				this.broadcastPrototypes();
+				changed = this.reduce();
+				metrics.phase("partition");
+
+				System.out.println("CalculatingPrototypes");
+				this.calculateProtoypes();
+				metrics.phase("prototypes");
+
+				metrics.changed = changed;
+				metrics.error = this.error;
+				this.fireIteration(metrics);
+			}
+
+			this.collectMembers();
+			for (int i = 0; i < workers; i++) {
+				outs[i].writeInt(KMeansWorker.STOP);
+				outs[i].flush();
+			}
+			for (int i = 0; i < workers; i++)
+				processes[i].waitFor();
+		}
+		catch (Exception e) {
+			System.out.println("error occured while training the workers:" + e);
+			return false;
+		}
+		finally {
+			// Workers that are still running after a failure are killed
+			for (int i = 0; i < workers; i++)
+				if (processes[i] != null)
+					processes[i].destroy();
+			try {
+				if (sockets != null)
+					for (int i = 0; i < workers; i++)
+						if (sockets[i] != null)
+							sockets[i].close();
+				if (server != null)
+					server.close();
+			}
+			catch (IOException e) {
+			}
+			sockets = null;
+			ins = null;
+			outs = null;
+		}
+
+		this.resetPrefetch();
+
+		return true;
+	}
+
+	// The command line of worker i. The workers run with the JVM options of the coordinator (heap size,
+	// -Dclustering.vector, --add-modules jdk.incubator.vector), except agents, whose ports would clash.
+	private List<String> workerCommand(int port, int i)
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+			if (!option.startsWith("-agentlib:") && !option.startsWith("-agentpath:") && !option.startsWith("-javaagent:")
+					&& !option.startsWith("-Xrunjdwp"))
+				command.add(option);
+		Collections.addAll(command, "-cp", System.getProperty("java.class.path"), "KMeansWorker",
+				String.valueOf(port), String.valueOf(i), String.valueOf(workers),
+				String.valueOf(k), String.valueOf(seed), String.valueOf(dim), trainFileName);
+		return command;
+	}
+
+	// Accepts the connections of all workers, they say who they are first. Every worker, also one
+	// without rows (more workers than rows), has to send partial results of dimension dim.
+	// A worker that exits before it connected (e.g. a bad train file or too little memory) fails the
+	// training right away, instead of after CONNECT_TIMEOUT.
+	private void connect(ServerSocket server, Process[] processes) throws IOException
+	{
+		sockets = new Socket[workers];
+		ins = new DataInputStream[workers];
+		outs = new DataOutputStream[workers];
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+
+		for (int i = 0; i < workers; i++) {
+			Socket socket = accept(server, processes, deadline);
+			DataInputStream in;
+			int index;
+			try {
+				socket.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				index = in.readInt();
+				if (index < 0 || index >= workers || sockets[index] != null)
+					throw new IOException("a worker connected as worker " + index + " of " + workers);
+			}
+			catch (IOException e) {
+				// The sockets of the other workers are closed by train()
+				socket.close();
+				throw e;
+			}
+
+			sockets[index] = socket;
+			ins[index] = in;
+			outs[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			in.readInt();	// the number of rows
+			int workerDim = in.readInt();
+			if (workerDim != dim)
+				throw new IOException("worker " + index + " has data of dimension " + workerDim + " instead of " + dim);
+		}
+	}
+
+	private Socket accept(ServerSocket server, Process[] processes, long deadline) throws IOException
+	{
+		while (true) {
+			try {
+				return server.accept();
+			}
+			catch (SocketTimeoutException e) {
+				for (int i = 0; i < workers; i++)
+					if (sockets[i] == null && !processes[i].isAlive())
+						throw new IOException("worker " + i + " exited with " + processes[i].exitValue() + " before it connected");
+				if (System.currentTimeMillis() > deadline)
+					throw new IOException("the workers didn't connect within " + CONNECT_TIMEOUT + " ms");
+			}
+		}
+	}
+
+	private void broadcastPrototypes() throws IOException
+	{
+		for (int i = 0; i < workers; i++) {
+			outs[i].writeInt(KMeansWorker.ITERATE);
+			for (int cluster = 0; cluster < k; cluster++)
+				for (int url = 0; url < dim; url++)
+					outs[i].writeFloat(prototypes[cluster][url]);
+			outs[i].flush();
+		}
+	}
+
+	// Adds up the partial results of all workers, returns the number of rows that changed cluster
+	private int reduce() throws IOException
+	{
+		for (int cluster = 0; cluster < k; cluster++) {
+			Arrays.fill(sums[cluster], 0.0);
+			counts[cluster] = 0;
+		}
+
+		int changed = 0;
+		error = 0;
+		for (int i = 0; i < workers; i++) {
+			DataInputStream in = ins[i];
+			changed += in.readInt();
+			error += in.readDouble();
+			for (int cluster = 0; cluster < k; cluster++)
+				counts[cluster] += in.readInt();
+			for (int cluster = 0; cluster < k; cluster++)
+				for (int url = 0; url < dim; url++)
+					sums[cluster][url] += in.readDouble();
+		}
+		return changed;
+	}
+
+	private void calculateProtoypes()
+	{
+		// Computed as in KMeans (a float sum divided by the number of members), an empty cluster gets NaN
+		for (int cluster = 0; cluster < k; cluster++)
+			for (int url = 0; url < dim; url++)
+				prototypes[cluster][url] = (float) sums[cluster][url] / counts[cluster];
+	}
+
+	private void collectMembers() throws IOException
+	{
+		for (int i = 0; i < workers; i++) {
+			outs[i].writeInt(KMeansWorker.MEMBERS);
+			outs[i].flush();
+		}
+
+		for (int cluster = 0; cluster < k; cluster++)
+			members.get(cluster).clear();
+
+		for (int i = 0; i < workers; i++) {
+			int rows = ins[i].readInt();
+			for (int row = 0; row < rows; row++) {
+				int id = ins[i].readInt();
+				members.get(ins[i].readInt()).add(id);
+			}
+		}
+	}
+
+	public boolean test()
+	{
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+
+		// iterate along all clients. Assumption: the same clients are in the same order as in the testData
+		for (int client = 0; client < testData.size(); client++) {
+			float[] currentClient = testData.elementAt(client);
+
+			for (int cluster = 0; cluster < k; cluster++) {
+				if (members.get(cluster).contains(client)) {
+					float[] prototype = prototypes[cluster];
+
+					for (int url = 0; url < dim; url++) {
+						if (prototype[url] >= prefetchThreshold) {
+							prefetched++;
+							if (currentClient[url] == 1.0)
+								hits++;
+						}
+						if (currentClient[url] == 1.0)
+							requests++;
+					}
+				}
+			}
+		}
+
+		this.hitrate = hits / (double) requests;
+		this.accuracy = hits / (double) prefetched;
+
+		return true;
+	}
+
+	// The following members are called by RunClustering, in order to present information to the user
+	public void showTest()
+	{
+		System.out.println("Prefetch threshold=" + this.prefetchThreshold);
+		System.out.println("Hitrate: " + this.hitrate);
+		System.out.println("Accuracy: " + this.accuracy);
+		System.out.println("Hitrate+Accuracy=" + (this.hitrate + this.accuracy));
+	}
+
+	public void showMembers()
+	{
+		for (int i = 0; i < k; i++)
+			System.out.println("\nMembers cluster[" + i + "] :" + members.get(i));
+	}
+
+	public void showPrototypes()
+	{
+		for (int ic = 0; ic < k; ic++) {
+			System.out.print("\nPrototype cluster[" + ic + "] :");
+
+			for (int ip = 0; ip < dim; ip++)
+				System.out.print(prototypes[ic][ip] + " ");
+
+			System.out.println();
+		}
+	}
+
+	// With this function you can set the prefetch threshold.
+	public void setPrefetchThreshold(double prefetchThreshold)
+	{
+		this.prefetchThreshold = prefetchThreshold;
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists
+	protected int clusterCount()
+	{
+		return k;
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return prototypes[cluster];
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return members.get(cluster);
+	}
+
+	protected double[] parameters()
+	{
+		return new double[] { k };
+	}
+
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		for (int i = 0; i < k; i++)
+			this.prototypes[i] = Arrays.copyOf(prototypes[i], dim);
+
+		this.members = members;
+		resetPrefetch();
+	}
+}
@@ -0,0 +1,71 @@
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+public class JmxTrainingListener implements TrainingListener, JmxTrainingListenerMBean
+{
+	// Publishes the metrics of the last training iteration as the MBean RunClustering:type=Training,
+	// so a running job can be watched with jconsole or any other JMX client
+
+	public static final String NAME = "RunClustering:type=Training";
+
+	private volatile TrainingMetrics last;
+
+	public JmxTrainingListener() throws JMException
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(NAME);
+
+		// A new training run replaces the listener of the previous one
+		if (server.isRegistered(name))
+			server.unregisterMBean(name);
+		server.registerMBean(this, name);
+	}
+
+	public void iteration(TrainingMetrics metrics)
+	{
+		last = metrics;
+	}
+
+	public String getAlgorithm()
+	{
+		return last == null ? "" : last.algorithm;
+	}
+
+	public int getIteration()
+	{
+		return last == null ? -1 : last.iteration;
+	}
+
+	public double getWallMillis()
+	{
+		return last == null ? 0 : last.nanos / 1e6;
+	}
+
+	public String getPhaseMillis()
+	{
+		TrainingMetrics metrics = last;
+		if (metrics == null)
+			return "";
+
+		StringBuilder phases = new StringBuilder();
+		for (int i = 0; i < metrics.phases.size(); i++)
+			phases.append(i > 0 ? " " : "").append(metrics.phases.get(i)).append('=').append(metrics.phaseNanos.get(i) / 1e6);
+
+		return phases.toString();
+	}
+
+	public int getChanged()
+	{
+		return last == null ? 0 : last.changed;
+	}
+
+	public double getError()
+	{
+		return last == null ? 0 : last.error;
+	}
+
+	public double getAllocationMegabytesPerSecond()
+	{
+		return last == null ? 0 : last.allocationRate() / 1e6;
+	}
+}
@@ -0,0 +1,18 @@
+public interface JmxTrainingListenerMBean
+{
+	// The attributes JmxTrainingListener shows, all of the last finished iteration
+
+	String getAlgorithm();
+
+	int getIteration();
+
+	double getWallMillis();
+
+	String getPhaseMillis();
+
+	int getChanged();
+
+	double getError();
+
+	double getAllocationMegabytesPerSecond();
+}
@@ -20,6 +20,12 @@ public class KMeans extends ClusteringAlgorithm
 	static class Cluster
 	{
 		float[] prototype;
+		
+		// Squared norm of the prototype, used by the sparse distance
+		double norm;
+		
+		// The prototype as bytes while training in quantized mode, null for an empty cluster
+		byte[] quantized;
 
 		Set<Integer> currentMembers;
 		Set<Integer> previousMembers;
@@ -36,6 +42,25 @@ public class KMeans extends ClusteringAlgorithm
 	// Remember that you have to cast them first, since vectors return objects.
 	private Vector<float[]> trainData;
 	private Vector<float[]> testData;
+	
+	// The same data in sparse format, if the algorithm was created with sparse data (the vectors are null then)
+	private SparseData sparseTrain;
+	private SparseData sparseTest;
+
+	// Draws the random partition, seeded to repeat a run (e.g. to compare with DistributedKMeans)
+	private Random randomizer = new Random();
+	
+	// Canopy thresholds (Hamming distances), canopies are only used if canopyT1 > 0 (see Canopies)
+	private double canopyT1;
+	private double canopyT2;
+	private Canopies canopies;
+	
+	// The train data as bytes, if the algorithm was created with quantized data (trainData is null then).
+	// Training runs on the bytes (see QuantizedData), the prototypes are floats again afterwards.
+	private QuantizedData quantizedTrain;
+	
+	// Number of distances computed by the partitions of the last training
+	private long distanceComputations;
 
 	// Results of test()
 	private double hitrate;
@@ -57,6 +82,19 @@ public class KMeans extends ClusteringAlgorithm
 		for (int ic = 0; ic < k; ic++)
 			clusters[ic] = new Cluster(dim);
 	}
+	
+	public KMeans(int k, SparseData trainData, SparseData testData)
+	{
+		this(k, null, null, trainData.dim());
+		this.sparseTrain = trainData;
+		this.sparseTest = testData;
+	}
+	
+	public KMeans(int k, QuantizedData trainData, Vector<float[]> testData)
+	{
+		this(k, null, testData, trainData.dim());
+		this.quantizedTrain = trainData;
+	}
 
 
 	public boolean train()
@@ -67,21 +105,83 @@ public class KMeans extends ClusteringAlgorithm
 		// Step 3: recalculate cluster centers
 		// Step 4: repeat until clustermembership stabilizes
 		
-		System.out.println("RandomPartition");
-		this.randomPartition(); ///step 1
+		this.distanceComputations = 0;
+		this.canopies = null;
 		
+		if (this.canopyT1 > 0 && trainData != null) {
+			this.canopies = new Canopies(trainData, this.dim, this.canopyT1, this.canopyT2, this.randomizer);
+			System.out.println("Canopies: " + this.canopies.size());
+		}
+		
+		if (this.canopies != null && this.canopies.size() >= this.k) {
+			System.out.println("CanopyPartition");
+			this.canopyPartition();
+		}
+		else {
+			System.out.println("RandomPartition");
+			this.randomPartition(); ///step 1
+		}
+		
+		int iteration = 0;
 		while(!this.sameMembers()){ /// step 4
+			TrainingMetrics metrics = new TrainingMetrics("k-means", iteration++);
+			
 			System.out.println("Partition");
 			this.partition(); ///step 2
+			metrics.phase("partition");
 			
 			System.out.println("CalculatingPrototypes");
 			this.calculateProtoypes(); ///step 3
+			metrics.phase("prototypes");
 			
+			if (this.hasTrainingListeners()) {
+				metrics.changed = this.changedMembers();
+				metrics.error = this.sumSquaredError();
+			}
+			this.fireIteration(metrics);
 		}
 		
+		if (this.canopies != null)
+			System.out.println("Distance computations: " + this.distanceComputations + " of " + (long) (iteration + 1) * this.k * trainData.size());
+		
+		///The prototypes are floats again (see calculateProtoypesQuantized), their bytes are no longer needed
+		for(int cluster = 0; cluster < this.k; cluster++)
+			this.clusters[cluster].quantized = null;
+		
+		this.resetPrefetch();
+		
 		return false;
 	}
 
+	
+	public void setCanopies(double t1, double t2) {
+		///Use canopies with these Hamming distance thresholds (t1 >= t2) in the next training
+		
+		this.canopyT1 = t1;
+		this.canopyT2 = t2;
+	}
+
+	
+	private void canopyPartition() {
+		///Start from the centers of the k largest canopies instead of a random partition
+		
+		Integer[] order = new Integer[this.canopies.size()];
+		for(int canopy = 0; canopy < order.length; canopy++)
+			order[canopy] = canopy;
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return canopies.canopySize(b) - canopies.canopySize(a);
+			}
+		});
+		
+		for(int cluster = 0; cluster < this.k; cluster++)
+			this.clusters[cluster].prototype = Arrays.copyOf(this.canopies.center(order[cluster]), this.dim);
+		
+		this.partition();
+		this.calculateProtoypes();
+	}
+
 	private boolean sameMembers() {
 		///Check if the current and previous members of all the clusters are the same.
 		
@@ -102,24 +202,147 @@ public class KMeans extends ClusteringAlgorithm
 	}
 
 	
-	private void partition() {
+	private int changedMembers() {
+		///Count the datapoints that moved to another cluster in the last partition
+		
+		int changed = 0;
+		for(int cluster = 0; cluster < this.k; cluster++){
+			for(int member : this.clusters[cluster].currentMembers)
+				if(!this.clusters[cluster].previousMembers.contains(member))
+					changed++;
+		}
+		
+		return changed;
+	}
+
+	
+	private double sumSquaredError() {
+		///The k-means objective: the sum of the squared distances of all datapoints to their prototype
+		
+		double error = 0;
+		for(int cluster = 0; cluster < this.k; cluster++){
+			Cluster currentCluster = this.clusters[cluster];
+			
+			for(int member : currentCluster.currentMembers){
+				if (sparseTrain != null)
+					error += sparseTrain.squaredDistance(member, currentCluster.prototype, currentCluster.norm);
+				else if (quantizedTrain != null)
+					error += QuantizedData.scale(Distance.squared(quantizedTrain.row(member), currentCluster.quantized, this.dim));
+				else
+					error += Distance.squared(trainData.get(member), currentCluster.prototype, this.dim);
+			}
+		}
+		
+		return error;
+	}
+
+	
+	// partition and calculateProtoypes are package private for the benchmarks (see benchmarks/)
+	void partition() {
 		///Repartition the data over the clusters according to Euclidian distance
 		
 		this.newGeneration();
 		
-		Iterator<float[]> users = trainData.iterator();
+		if (sparseTrain != null) {
+			this.partitionSparse();
+			return;
+		}
+		
+		if (quantizedTrain != null) {
+			this.partitionQuantized();
+			return;
+		}
+		
+		float[][] prototypes = this.prototypes();
+		
+		if (this.canopies != null) {
+			this.partitionCanopies(prototypes);
+			return;
+		}
 		
 		///For every user
-		while(users.hasNext()){
-			float[] currentUser = users.next();
+		for(int user = 0; user < trainData.size(); user++){
+			///Check the distance for every combination with a cluster
+			int chosenCluster = Distance.nearest(trainData.get(user), prototypes, this.dim);
+			
+			///Now add the user to the best cluster
+			this.clusters[chosenCluster].currentMembers.add(user);
+			
+		}
+		
+	}
+
+	
+	private void partitionCanopies(float[][] prototypes) {
+		///Same as partition, but a user is only compared with the prototypes that share a canopy with it
+		
+		///The prototypes in every canopy
+		Vector<Vector<Integer>> canopyPrototypes = new Vector<Vector<Integer>>();
+		for(int canopy = 0; canopy < this.canopies.size(); canopy++)
+			canopyPrototypes.add(new Vector<Integer>());
+		for(int cluster = 0; cluster < this.k; cluster++)
+			for(int canopy : this.canopies.canopiesNear(prototypes[cluster]))
+				canopyPrototypes.get(canopy).add(cluster);
+		
+		boolean[] candidate = new boolean[this.k];
+		
+		for(int user = 0; user < trainData.size(); user++){
+			float[] data = trainData.get(user);
+			Arrays.fill(candidate, false);
+			
+			int candidates = 0;
+			for(int canopy : this.canopies.canopiesOf(user)){
+				for(int cluster : canopyPrototypes.get(canopy)){
+					if(!candidate[cluster]){
+						candidate[cluster] = true;
+						candidates++;
+					}
+				}
+			}
+			
+			int chosenCluster;
+			if(candidates == 0){
+				///No prototype shares a canopy with this user, compare with all of them
+				chosenCluster = Distance.nearest(data, prototypes, this.dim);
+				this.distanceComputations += this.k;
+			}
+			else{
+				double minDistance = Double.MAX_VALUE;
+				chosenCluster = 0;
+				for(int cluster = 0; cluster < this.k; cluster++){
+					if(candidate[cluster]){
+						double distance = Distance.squared(data, prototypes[cluster], this.dim);
+						if(distance < minDistance){
+							minDistance = distance;
+							chosenCluster = cluster;
+						}
+					}
+				}
+				this.distanceComputations += candidates;
+				
+				///Only empty (NaN) clusters share a canopy with this user
+				if(minDistance == Double.MAX_VALUE){
+					chosenCluster = Distance.nearest(data, prototypes, this.dim);
+					this.distanceComputations += this.k;
+				}
+			}
+			
+			this.clusters[chosenCluster].currentMembers.add(user);
+		}
+	}
+
+	
+	private void partitionSparse() {
+		///Same as partition, but only the non-zeros of a user are visited (using the prototype norms)
+		
+		for(int user = 0; user < sparseTrain.size(); user++){
 			double minDistance = Double.MAX_VALUE;
 			int chosenCluster = 0;
 			
-			///Check the distance for every combination with a cluster
 			for(int cluster = 0; cluster < this.k; cluster++){
 				Cluster currentCluster = this.clusters[cluster];
 				
-				double distance = this.euclidianDist(currentUser, currentCluster.prototype);
+				double distance = sparseTrain.squaredDistance(user, currentCluster.prototype, currentCluster.norm);
 				
 				if(distance < minDistance){
 					minDistance = distance;
@@ -127,26 +350,39 @@ public class KMeans extends ClusteringAlgorithm
 				}
 			}
 			
-			///Now add the user to the best cluster
-			this.clusters[chosenCluster].currentMembers.add(trainData.indexOf(currentUser));
-			
+			this.clusters[chosenCluster].currentMembers.add(user);
 		}
-		
 	}
 
 	
-	private double euclidianDist(float[] currentUser, float[] prototype) {
-		///Calculate the Euclidian distance between the member's array and the prototype
+	private void partitionQuantized() {
+		///Same as partition, on the bytes. Empty clusters (NaN prototypes in partition) are left out
+		
+		int[] live = new int[this.k];
+		int count = 0;
+		for(int cluster = 0; cluster < this.k; cluster++)
+			if(this.clusters[cluster].quantized != null)
+				live[count++] = cluster;
 		
-		double result = 0;
+		byte[][] prototypes = new byte[count][];
+		for(int i = 0; i < count; i++)
+			prototypes[i] = this.clusters[live[i]].quantized;
 		
-		for(int i= 0; i < this.dim; i++){
-			result += Math.pow((currentUser[i] - prototype[i]), 2);
+		for(int user = 0; user < quantizedTrain.size(); user++){
+			int chosenCluster = live[Distance.nearest(quantizedTrain.row(user), prototypes, this.dim)];
+			this.clusters[chosenCluster].currentMembers.add(user);
 		}
+	}
+
+	
+	private float[][] prototypes() {
+		///The prototypes of all clusters, for the distance kernels
 		
-		result = Math.sqrt(result);
+		float[][] prototypes = new float[this.k][];
+		for(int cluster = 0; cluster < this.k; cluster++)
+			prototypes[cluster] = this.clusters[cluster].prototype;
 		
-		return result;
+		return prototypes;
 	}
 
 
@@ -165,8 +401,16 @@ public class KMeans extends ClusteringAlgorithm
 	private void randomPartition() {
 		/// Select a random partitioning of the clusters
 		
+		if (sparseTrain != null || quantizedTrain != null) {
+			int users = sparseTrain != null ? sparseTrain.size() : quantizedTrain.size();
+			for(int user = 0; user < users; user++)
+				this.clusters[randomizer.nextInt(k)].currentMembers.add(user);
+			
+			this.calculateProtoypes();
+			return;
+		}
+		
 		Iterator<float[]> user = trainData.iterator();
-		Random randomizer = new Random();
 		
 		while(user.hasNext()){
 			float[] urls = user.next();
@@ -183,9 +427,19 @@ public class KMeans extends ClusteringAlgorithm
 	}
 
 
-	private void calculateProtoypes() {
+	void calculateProtoypes() {
 		/// Calculate the prototypes of each of the clusters
 		
+		if (sparseTrain != null) {
+			this.calculateProtoypesSparse();
+			return;
+		}
+		
+		if (quantizedTrain != null) {
+			this.calculateProtoypesQuantized();
+			return;
+		}
+		
 		///Loop over clusters
 		for(int i = 0; i < this.k; i++){
 			Cluster cluster = this.clusters[i];
@@ -209,8 +463,70 @@ public class KMeans extends ClusteringAlgorithm
 	}
 
 
+	private void calculateProtoypesSparse() {
+		/// Sum the non-zeros of the members, then divide by the number of members
+		
+		for(int i = 0; i < this.k; i++){
+			Cluster cluster = this.clusters[i];
+			Arrays.fill(cluster.prototype, 0.0f);
+			
+			Iterator<Integer> user = cluster.currentMembers.iterator();
+			while(user.hasNext())
+				sparseTrain.addTo(user.next(), cluster.prototype, 1.0f);
+			
+			for(int url = 0; url < this.dim; url++)
+				cluster.prototype[url] /= cluster.currentMembers.size();
+			
+			cluster.norm = SparseData.squaredNorm(cluster.prototype);
+		}
+	}
+
+
+	private void calculateProtoypesQuantized() {
+		/// Sum the bytes of the members, the rounded mean is the new quantized prototype.
+		/// The float prototype is recovered from the bytes, it is only used for testing and reporting.
+		/// The sums are longs: a cluster of more than 2^31 / 255 members would overflow an int.
+		
+		long[] sum = new long[this.dim];
+		
+		for(int i = 0; i < this.k; i++){
+			Cluster cluster = this.clusters[i];
+			int size = cluster.currentMembers.size();
+			
+			if(size == 0){
+				Arrays.fill(cluster.prototype, Float.NaN);
+				cluster.quantized = null;
+				continue;
+			}
+			
+			Arrays.fill(sum, 0);
+			for(int member : cluster.currentMembers){
+				byte[] row = quantizedTrain.row(member);
+				for(int url = 0; url < this.dim; url++)
+					sum[url] += row[url] & 0xff;
+			}
+			
+			if(cluster.quantized == null)
+				cluster.quantized = new byte[this.dim];
+			for(int url = 0; url < this.dim; url++){
+				cluster.quantized[url] = (byte) ((sum[url] + size / 2) / size);
+				cluster.prototype[url] = QuantizedData.value(cluster.quantized[url]);
+			}
+		}
+	}
+
+
+	public void setSeed(long seed)
+	{
+		randomizer = new Random(seed);
+	}
+
+
 	public boolean test()
 	{	
+		if (sparseTest != null)
+			return this.testSparse();
+		
 		int prefetched = 0;
 		int requests = 0;
 		int hits = 0;
@@ -251,6 +567,120 @@ public class KMeans extends ClusteringAlgorithm
 	}
 
 
+	private boolean testSparse()
+	{
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+		
+		// the number of prefetched htmls only depends on the cluster
+		int[] prefetchedCluster = new int[this.k];
+		for(int cluster = 0; cluster < this.k; cluster++)
+			for(int url = 0; url < this.dim; url++)
+				if(this.clusters[cluster].prototype[url] >= this.prefetchThreshold)
+					prefetchedCluster[cluster]++;
+		
+		for(int client = 0; client < sparseTest.size(); client++){
+			for(int cluster = 0; cluster < this.k; cluster++){
+				Cluster currentCluster = this.clusters[cluster];
+				if(currentCluster.currentMembers.contains(client)){
+					prefetched += prefetchedCluster[cluster];
+					
+					// only the requested urls can be hits
+					for(int i = sparseTest.start(client); i < sparseTest.end(client); i++){
+						if(sparseTest.value(i) == 1.0){
+							requests++;
+							if(currentCluster.prototype[sparseTest.col(i)] >= this.prefetchThreshold)
+								hits++;
+						}
+					}
+				}
+			}
+		}
+		
+		this.hitrate = hits/(double)requests;
+		this.accuracy = hits/(double)prefetched;
+		
+		return true;
+	}
+
+
+	public boolean update(int id, float[] data)
+	{
+		///Online (MacQueen) k-means step: take the client's old vector out of the mean of its
+		///cluster and add the new vector to the mean of the closest cluster. Costs O(k*dim).
+
+		///The rows of the sparse data can't be changed
+		if (sparseTrain != null)
+			return false;
+
+		if (data.length > this.dim)
+			this.expand(data.length);
+		else if (data.length < this.dim)
+			data = Arrays.copyOf(data, this.dim);
+
+		float[] old;
+		if (quantizedTrain != null)
+			old = id < quantizedTrain.size() ? QuantizedData.toFloat(quantizedTrain.row(id)) : new float[this.dim];
+		else {
+			while (trainData.size() <= id)
+				trainData.add(new float[this.dim]);
+			old = trainData.get(id);
+		}
+
+		///Remove the client from its current cluster
+		for (int cluster = 0; cluster < this.k; cluster++) {
+			Cluster currentCluster = this.clusters[cluster];
+
+			if (currentCluster.currentMembers.remove(id)) {
+				int size = currentCluster.currentMembers.size();
+
+				///An emptied cluster keeps its prototype, so it can still attract new members
+				if (size > 0) {
+					for (int url = 0; url < this.dim; url++)
+						currentCluster.prototype[url] += (currentCluster.prototype[url] - old[url]) / size;
+				}
+				break;
+			}
+		}
+
+		if (quantizedTrain != null)
+			quantizedTrain.setRow(id, data);
+		else
+			trainData.set(id, data);
+
+		///Find the closest cluster for the new vector
+		int chosenCluster = Distance.nearest(data, this.prototypes(), this.dim);
+
+		///Add it and move the prototype towards it
+		Cluster chosen = this.clusters[chosenCluster];
+		chosen.currentMembers.add(id);
+		int size = chosen.currentMembers.size();
+		for (int url = 0; url < this.dim; url++)
+			chosen.prototype[url] += (data[url] - chosen.prototype[url]) / size;
+
+		this.resetPrefetch();
+
+		return true;
+	}
+
+
+	private void expand(int newDim) {
+		///New urls have been seen, grow the prototypes and the data to the new dimensionality
+
+		for (int i = 0; i < this.k; i++)
+			this.clusters[i].prototype = Arrays.copyOf(this.clusters[i].prototype, newDim);
+
+		if (quantizedTrain != null)
+			quantizedTrain.expand(newDim);
+		else
+			padRows(trainData, newDim);
+		padRows(testData, newDim);
+
+		this.dim = newDim;
+	}
+
+
 	// The following members are called by RunClustering, in order to present information to the user
 	public void showTest()
 	{
@@ -282,5 +712,43 @@ public class KMeans extends ClusteringAlgorithm
 	public void setPrefetchThreshold(double prefetchThreshold)
 	{
 		this.prefetchThreshold = prefetchThreshold;
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists
+	protected int clusterCount()
+	{
+		return k;
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return clusters[cluster].prototype;
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return clusters[cluster].currentMembers;
+	}
+
+	protected double[] parameters()
+	{
+		return new double[] { k };
+	}
+
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		for (int i = 0; i < k; i++) {
+			clusters[i].prototype = Arrays.copyOf(prototypes[i], dim);
+			clusters[i].norm = SparseData.squaredNorm(clusters[i].prototype);
+			clusters[i].currentMembers = members.get(i);
+			clusters[i].previousMembers = new HashSet<Integer>(members.get(i));
+		}
+		resetPrefetch();
 	}
 }
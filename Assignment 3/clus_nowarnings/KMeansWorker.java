@@ -0,0 +1,178 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.*;
+
+public class KMeansWorker
+{
+	// A worker process of DistributedKMeans, started by the coordinator as
+	//   java KMeansWorker <port> <index> <workers> <k> <seed> <dim> <trainFile>
+	// It loads its partition of the train file (the rows with row % workers == index), connects to the
+	// coordinator on the loopback interface and answers its commands until it is told to stop.
+	// The dimension comes from the coordinator, so a worker without rows sends partial results of the same size.
+	//
+	// Protocol (DataInput/DataOutputStream): the worker sends its index, number of rows and dim, followed by the
+	// partial result of the random partition. Then the coordinator sends commands:
+	//   ITERATE, float[k][dim] prototypes -> assign every row to its closest prototype, send the partial result
+	//   MEMBERS                            -> send the number of rows, then per row its id and cluster
+	//   STOP                               -> exit
+	// A partial result is: int changed, double error, int[k] counts, double[k][dim] sums.
+
+	static final int STOP = 0;
+	static final int ITERATE = 1;
+	static final int MEMBERS = 2;
+
+	private int k;
+	private int dim;
+
+	// The rows of this partition, their ids in the train file and their current cluster
+	private float[][] rows;
+	private int[] ids;
+	private int[] assignment;
+
+	private float[][] prototypes;
+	private double[][] sums;
+	private int[] counts;
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = Integer.parseInt(args[0]);
+		int index = Integer.parseInt(args[1]);
+		int workers = Integer.parseInt(args[2]);
+		int k = Integer.parseInt(args[3]);
+		long seed = Long.parseLong(args[4]);
+		int dim = Integer.parseInt(args[5]);
+
+		KMeansWorker worker = new KMeansWorker(k, dim);
+		worker.load(args[6], index, workers, seed);
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(index);
+			out.writeInt(worker.rows.length);
+			out.writeInt(worker.dim);
+			worker.sendPartial(out, worker.rows.length, 0.0);
+
+			worker.serve(in, out);
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	public KMeansWorker(int k, int dim)
+	{
+		this.k = k;
+		this.dim = dim;
+	}
+
+	// Reads the rows of this partition. The random partition is the same as KMeans with the same seed:
+	// the random cluster of every row of the file is drawn in order, also for the rows of other workers.
+	private void load(String trainFileName, int index, int workers, long seed) throws IOException
+	{
+		Vector<float[]> data = new Vector<float[]>();
+		Vector<Integer> dataIds = new Vector<Integer>();
+		Vector<Integer> clusters = new Vector<Integer>();
+		Random randomizer = new Random(seed);
+
+		BufferedReader br = new BufferedReader(new FileReader(trainFileName), 1 << 16);
+		String line;
+		int row = 0;
+		while ((line = br.readLine()) != null) {
+			int cluster = randomizer.nextInt(k);
+
+			if (row % workers == index) {
+				StringTokenizer st = new StringTokenizer(line, " \t\n\r\f,");
+				if (dim != st.countTokens())
+					throw new IOException("traindata vectors have different size");
+
+				float[] values = new float[dim];
+				for (int i = 0; i < dim; i++)
+					values[i] = Float.parseFloat(st.nextToken());
+
+				data.add(values);
+				dataIds.add(row);
+				clusters.add(cluster);
+			}
+			row++;
+		}
+		br.close();
+
+		rows = data.toArray(new float[data.size()][]);
+		ids = new int[rows.length];
+		assignment = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			ids[i] = dataIds.get(i);
+			assignment[i] = clusters.get(i);
+		}
+
+		prototypes = new float[k][dim];
+		sums = new double[k][dim];
+		counts = new int[k];
+	}
+
+	private void serve(DataInputStream in, DataOutputStream out) throws IOException
+	{
+		while (true) {
+			int command = in.readInt();
+
+			if (command == ITERATE) {
+				for (int cluster = 0; cluster < k; cluster++)
+					for (int url = 0; url < dim; url++)
+						prototypes[cluster][url] = in.readFloat();
+
+				int changed = 0;
+				double error = 0;
+				for (int i = 0; i < rows.length; i++) {
+					int cluster = Distance.nearest(rows[i], prototypes, dim);
+					if (cluster != assignment[i]) {
+						assignment[i] = cluster;
+						changed++;
+					}
+					error += Distance.squared(rows[i], prototypes[cluster], dim);
+				}
+				sendPartial(out, changed, error);
+			}
+			else if (command == MEMBERS) {
+				out.writeInt(rows.length);
+				for (int i = 0; i < rows.length; i++) {
+					out.writeInt(ids[i]);
+					out.writeInt(assignment[i]);
+				}
+				out.flush();
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	// The sums and counts of the rows of every cluster
+	private void sendPartial(DataOutputStream out, int changed, double error) throws IOException
+	{
+		for (int cluster = 0; cluster < k; cluster++) {
+			Arrays.fill(sums[cluster], 0.0);
+			counts[cluster] = 0;
+		}
+		for (int i = 0; i < rows.length; i++) {
+			double[] sum = sums[assignment[i]];
+			float[] row = rows[i];
+			for (int url = 0; url < dim; url++)
+				sum[url] += row[url];
+			counts[assignment[i]]++;
+		}
+
+		out.writeInt(changed);
+		out.writeDouble(error);
+		for (int cluster = 0; cluster < k; cluster++)
+			out.writeInt(counts[cluster]);
+		for (int cluster = 0; cluster < k; cluster++)
+			for (int url = 0; url < dim; url++)
+				out.writeDouble(sums[cluster][url]);
+		out.flush();
+	}
+}
@@ -1,6 +1,8 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
@@ -24,11 +26,27 @@ public class Kohonen extends ClusteringAlgorithm
 	// This class represents the clusters, it contains the prototype (the mean of all it's members)
 	// and a memberlist with the ID's (Integer objects) of the datapoints that are member of that cluster.  
 	private Cluster[][] clusters;
+	
+	// The prototypes of the map row by row (cluster [x][y] is at x*n+y), for the distance kernels
+	private float[][] prototypes;
 
 	// Vector which contains the train/test data
 	private Vector<float[]> trainData;
 	private Vector<float[]> testData;
 	
+	// The same data in sparse format, if the map was created with sparse data (the vectors are null then)
+	private SparseData sparseTrain;
+	private SparseData sparseTest;
+	
+	// The train data as bytes, if the map was created with quantized data (trainData is null then).
+	// The BMUs are found on the bytes while training (see QuantizedData).
+	private QuantizedData quantizedTrain;
+	
+	// Training skips epochs when the quantization error on a sample of sampleSize rows improves
+	// less than tolerance (relative) in an epoch and the prototypes have settled, 0 trains all epochs (see Convergence)
+	private double tolerance;
+	private int sampleSize = 1000;
+	
 	// Results of test()
 	private double hitrate;
 	private double accuracy;
@@ -37,6 +55,12 @@ public class Kohonen extends ClusteringAlgorithm
 	{
 			float[] prototype;
 
+			// Squared norm of the prototype, used by the sparse distance
+			double norm;
+
+			// The prototype as bytes while training in quantized mode
+			byte[] quantized;
+
 			Set<Integer> currentMembers;
 
 			public Cluster()
@@ -45,7 +69,7 @@ public class Kohonen extends ClusteringAlgorithm
 			}
 	}
 	
-	private class Coordinate{
+	class Coordinate{
 		int x;
 		int y;
 		
@@ -55,6 +79,118 @@ public class Kohonen extends ClusteringAlgorithm
 		}
 	}
 	
+	// Collects the quantization error and the number of changed BMUs of an epoch for the training listeners
+	private class EpochStats{
+		boolean listening = hasTrainingListeners();
+		int[] lastBMU;
+		int changed;
+		double error;
+		
+		public EpochStats(int size){
+			lastBMU = new int[listening ? size : 0];
+			Arrays.fill(lastBMU, -1);
+		}
+		
+		void add(int us, Coordinate BMU, double squaredDistance){
+			error += Math.sqrt(squaredDistance);
+			if (lastBMU[us] != BMU.x*n + BMU.y){
+				lastBMU[us] = BMU.x*n + BMU.y;
+				changed++;
+			}
+		}
+		
+		void fire(TrainingMetrics metrics){
+			metrics.phase("epoch");
+			metrics.changed = changed;
+			metrics.error = lastBMU.length > 0 ? error / lastBMU.length : 0;
+			fireIteration(metrics);
+			
+			changed = 0;
+			error = 0;
+		}
+	}
+	
+	// Measures the average quantization error on a sample of the train data and the average movement of the
+	// prototypes after every epoch. When the error no longer improves and the prototypes move less than
+	// tolerance times the error (they have settled relative to the spread of the data), half of the remaining
+	// epochs are skipped, so the neighbourhood and learning rate shrink faster. The last epoch is always trained.
+	private class Convergence{
+		boolean enabled = tolerance > 0;
+		int[] sample;
+		float[][] previous;
+		double lastError = -1;
+		int trained;
+		
+		public Convergence(int size){
+			if (!enabled)
+				return;
+			
+			///A random sample without repetitions (partial Fisher-Yates)
+			int[] rows = new int[size];
+			for (int i = 0; i < size; i++)
+				rows[i] = i;
+			Random rnd = new Random();
+			sample = new int[Math.min(sampleSize, size)];
+			for (int i = 0; i < sample.length; i++){
+				int j = i + rnd.nextInt(size - i);
+				sample[i] = rows[j];
+				rows[j] = rows[i];
+			}
+			
+			previous = new float[n*n][];
+			snapshot();
+		}
+		
+		private void snapshot(){
+			for (int i = 0; i < n*n; i++)
+				previous[i] = Arrays.copyOf(prototypes[i], dim);
+		}
+		
+		// The epoch to train after epoch e
+		int next(int e){
+			trained++;
+			if (!enabled)
+				return e + 1;
+			
+			double error = 0;
+			for (int us : sample){
+				if (sparseTrain != null){
+					Coordinate BMU = findBMU(sparseTrain, us);
+					error += Math.sqrt(sparseTrain.squaredDistance(us, clusters[BMU.x][BMU.y].prototype, clusters[BMU.x][BMU.y].norm));
+				}
+				else {
+					float[] row = quantizedTrain != null ? QuantizedData.toFloat(quantizedTrain.row(us)) : trainData.get(us);
+					Coordinate BMU = findBMU(row);
+					error += Math.sqrt(Distance.squared(row, clusters[BMU.x][BMU.y].prototype, dim));
+				}
+			}
+			error /= Math.max(sample.length, 1);
+			
+			double movement = 0;
+			for (int i = 0; i < n*n; i++)
+				movement += Math.sqrt(Distance.squared(prototypes[i], previous[i], dim));
+			movement /= n*n;
+			snapshot();
+			
+			System.out.println("Epoch: " + e + " | sample error = " + error + " | movement = " + movement);
+			
+			boolean converged = lastError >= 0 && Math.abs(lastError - error) < tolerance * lastError
+					&& movement < tolerance * error;
+			lastError = error;
+			if (converged && e < epochs - 2){
+				int skip = (epochs - 1 - e) / 2;
+				System.out.println("Converged, skipping to epoch " + (e + 1 + skip));
+				return e + 1 + skip;
+			}
+			return e + 1;
+		}
+		
+		void report(){
+			if (enabled)
+				System.out.println("Trained " + trained + " of " + epochs + " epochs, sample error = " + lastError);
+		}
+	}
+	
 	public Kohonen(int n, int epochs, Vector<float[]> trainData, Vector<float[]> testData, int dim)
 	{
 		this.n = n;
@@ -78,30 +214,55 @@ public class Kohonen extends ClusteringAlgorithm
 				}
 			}
 		}
+		
+		collectPrototypes();
 	}
 	
-	private double euclidianDist(float[] currentUser, float[] prototype) {
-		///Calculate the Euclidian distance between the member's array and the prototype
-		
-		double result = 0;
-		
-		for(int i= 0; i < this.dim; i++){
-			result += Math.pow((currentUser[i] - prototype[i]), 2);
-		}
-		
-		result = Math.sqrt(result);
+	private void collectPrototypes(){
+		prototypes = new float[n*n][];
+		for (int i = 0; i < n; i++)
+			for (int i2 = 0; i2 < n; i2++)
+				prototypes[i*n + i2] = clusters[i][i2].prototype;
+	}
+	
+	public Kohonen(int n, int epochs, SparseData trainData, SparseData testData)
+	{
+		this(n, epochs, null, null, trainData.dim());
+		this.sparseTrain = trainData;
+		this.sparseTest = testData;
 		
-		return result;
+		for (int i = 0; i < n; i++)
+			for (int i2 = 0; i2 < n; i2++)
+				clusters[i][i2].norm = SparseData.squaredNorm(clusters[i][i2].prototype);
 	}
 	
-	private Coordinate findBMU(float[] us){
+	public Kohonen(int n, int epochs, QuantizedData trainData, Vector<float[]> testData)
+	{
+		this(n, epochs, null, testData, trainData.dim());
+		this.quantizedTrain = trainData;
+	}
+	
+	// Package private for the benchmarks (see benchmarks/)
+	Coordinate findBMU(float[] us){
 		///Step 3: find the cluster closest to the input vector (us) in terms of euclidian distance
+		int best = Distance.nearest(us, prototypes, dim);
+		return new Coordinate(best / n, best % n);
+	}
+	
+	private Coordinate findBMU(byte[] us, byte[][] quantizedPrototypes){
+		///Same as above for a quantized input vector
+		int best = Distance.nearest(us, quantizedPrototypes, dim);
+		return new Coordinate(best / n, best % n);
+	}
+	
+	private Coordinate findBMU(SparseData data, int us){
+		///Same as above for a row (us) of sparse data, only its non-zeros are visited
 		double min = Double.MAX_VALUE;
 		Coordinate best = new Coordinate(0, 0);
 		for (int i1 = 0; i1 < n; ++i1){
-			for (int i2 = 0; i2 < n; ++i2){ ///Loop over all clusters
-				double dist = euclidianDist(us, clusters[i1][i2].prototype);
-				if (dist < min){ ///Select closest
+			for (int i2 = 0; i2 < n; ++i2){
+				double dist = data.squaredDistance(us, clusters[i1][i2].prototype, clusters[i1][i2].norm);
+				if (dist < min){
 					min = dist;
 					best = new Coordinate(i1, i2);
 				}
@@ -137,6 +298,35 @@ public class Kohonen extends ClusteringAlgorithm
 		}
 	}
 	
+	private void updateNeighbors(ArrayList<Cluster> nb, SparseData data, int inpVec, float eta){
+		///Same update as above, written as (1-eta)*prototype + (1-eta)*eta*input so the input's zeros are skipped
+		Iterator<Cluster> clusters = nb.iterator();
+		
+		while (clusters.hasNext()){
+			Cluster c = clusters.next();
+			for (int i = 0; i < dim; ++i){
+				c.prototype[i] *= (1 - eta);
+			}
+			data.addTo(inpVec, c.prototype, (1 - eta)*eta);
+			c.norm = SparseData.squaredNorm(c.prototype);
+		}
+	}
+	
+	private void updateQuantized(ArrayList<Cluster> nb, byte[] inpVec, float eta){
+		///Same update as above for a quantized input vector, the bytes of the prototypes are written
+		///in the same pass. The prototypes stay in [0,1], so the rounding needs no clamping.
+		Iterator<Cluster> clusters = nb.iterator();
+		
+		while (clusters.hasNext()){
+			Cluster c = clusters.next();
+			for (int i = 0; i < dim; ++i){
+				float value = (1 - eta)*(c.prototype[i]+(eta*QuantizedData.value(inpVec[i])));
+				c.prototype[i] = value;
+				c.quantized[i] = (byte) (int) (value * 255.0f + 0.5f);
+			}
+		}
+	}
+	
 	public boolean train()
 	{
 		// Step 1: initialize map with random vectors (A good place to do this, is in the initialisation of the clusters) -- DONE
@@ -147,23 +337,36 @@ public class Kohonen extends ClusteringAlgorithm
 				// Step 4: All nodes within the neighbourhood of the BMU are changed, you don't have to use distance relative learning.
 		// Since training kohonen maps can take quite a while, presenting the user with a progress bar would be nice
 		
+		if (sparseTrain != null)
+			return trainSparse();
+		
+		if (quantizedTrain != null)
+			return trainQuantized();
+		
 		Iterator<float[]> users;
 		
-		for (int e =0; e < epochs; ++e){///Step 2 and 6
+		EpochStats stats = new EpochStats(trainData.size());
+		
+		Convergence convergence = new Convergence(trainData.size());
+		for (int e =0; e < epochs; e = convergence.next(e)){///Step 2 and 6
 			
 			float r = (n/2)*(1-((float) e/epochs)); ///Calculate r every loop as e changes, within the loop would be inefficient
 			float eta = 0.8f*(1-((float) e/epochs)); ///Same for eta.
+			TrainingMetrics metrics = new TrainingMetrics("kohonen", e);
 			
-			users = trainData.iterator();//(re-)initialize the iterator
-			while (users.hasNext()){
-				float[] us = users.next();
+			for (int i = 0; i < trainData.size(); ++i){
+				float[] us = trainData.get(i);
 				Coordinate BMU = findBMU(us);///Step 3
+				if (stats.listening)
+					stats.add(i, BMU, Distance.squared(us, clusters[BMU.x][BMU.y].prototype, dim));
 				ArrayList<Cluster> neighbors = findNeighbors(BMU, r);///Step 4
 				updateNeighbors(neighbors, us, eta);///Step 5
 			}
 			
 			System.out.println("Epoch: " + e + " | r = " + r + " | eta = " + eta);
+			stats.fire(metrics);
 		}
+		convergence.report();
 		
 		///Now that prototypes are trained, add each user to a cluster.
 		users = trainData.iterator();
@@ -173,15 +376,108 @@ public class Kohonen extends ClusteringAlgorithm
 			clusters[BMU.x][BMU.y].currentMembers.add(trainData.indexOf(us));
 		}
 		
+		resetPrefetch();
+		
 		return true;
 	}
 	
+	private boolean trainSparse()
+	{
+		///Same as train(), the input vectors are the rows of the sparse data
+		EpochStats stats = new EpochStats(sparseTrain.size());
+		
+		Convergence convergence = new Convergence(sparseTrain.size());
+		for (int e =0; e < epochs; e = convergence.next(e)){
+			float r = (n/2)*(1-((float) e/epochs));
+			float eta = 0.8f*(1-((float) e/epochs));
+			TrainingMetrics metrics = new TrainingMetrics("kohonen", e);
+			
+			for (int us = 0; us < sparseTrain.size(); ++us){
+				Coordinate BMU = findBMU(sparseTrain, us);
+				if (stats.listening)
+					stats.add(us, BMU, sparseTrain.squaredDistance(us, clusters[BMU.x][BMU.y].prototype, clusters[BMU.x][BMU.y].norm));
+				updateNeighbors(findNeighbors(BMU, r), sparseTrain, us, eta);
+			}
+			
+			System.out.println("Epoch: " + e + " | r = " + r + " | eta = " + eta);
+			stats.fire(metrics);
+		}
+		convergence.report();
+		
+		for (int us = 0; us < sparseTrain.size(); ++us){
+			Coordinate BMU = findBMU(sparseTrain, us);
+			clusters[BMU.x][BMU.y].currentMembers.add(us);
+		}
+		
+		resetPrefetch();
+		
+		return true;
+	}
+	
+	private boolean trainQuantized()
+	{
+		///Same as train(), but the BMUs are found on bytes. The neighbours are still updated as floats,
+		///steps of eta * (input - prototype) would mostly round away in bytes, and then quantized again.
+		QuantizedData data = quantizedTrain;
+		byte[][] quantizedPrototypes = new byte[n*n][];
+		for (int i = 0; i < n; i++){
+			for (int i2 = 0; i2 < n; i2++){
+				clusters[i][i2].quantized = new byte[dim];
+				QuantizedData.quantize(clusters[i][i2].prototype, clusters[i][i2].quantized);
+				quantizedPrototypes[i*n + i2] = clusters[i][i2].quantized;
+			}
+		}
+		
+		EpochStats stats = new EpochStats(data.size());
+		
+		Convergence convergence = new Convergence(data.size());
+		for (int e =0; e < epochs; e = convergence.next(e)){
+			float r = (n/2)*(1-((float) e/epochs));
+			float eta = 0.8f*(1-((float) e/epochs));
+			TrainingMetrics metrics = new TrainingMetrics("kohonen", e);
+			
+			for (int us = 0; us < data.size(); ++us){
+				Coordinate BMU = findBMU(data.row(us), quantizedPrototypes);
+				if (stats.listening)
+					stats.add(us, BMU, QuantizedData.scale(Distance.squared(data.row(us), clusters[BMU.x][BMU.y].quantized, dim)));
+				
+				updateQuantized(findNeighbors(BMU, r), data.row(us), eta);
+			}
+			
+			System.out.println("Epoch: " + e + " | r = " + r + " | eta = " + eta);
+			stats.fire(metrics);
+		}
+		convergence.report();
+		
+		for (int us = 0; us < data.size(); ++us){
+			Coordinate BMU = findBMU(data.row(us), quantizedPrototypes);
+			clusters[BMU.x][BMU.y].currentMembers.add(us);
+		}
+		
+		for (int i = 0; i < n; i++)
+			for (int i2 = 0; i2 < n; i2++)
+				clusters[i][i2].quantized = null;
+		
+		resetPrefetch();
+		
+		return true;
+	}
+	
+	public void setConvergence(double tolerance, int sampleSize)
+	{
+		this.tolerance = tolerance;
+		this.sampleSize = sampleSize;
+	}
+	
 	public boolean test()
 	{
 		// iterate along all clients
 		// for each client find the cluster of which it is a member
 		// get the actual testData (the vector) of this client
 		
+		if (sparseTest != null)
+			return testSparse();
+		
 		Iterator<float[]> clients = testData.iterator();
 		int prefetched = 0;
 		int hits = 0;
@@ -229,6 +525,100 @@ public class Kohonen extends ClusteringAlgorithm
 	}
 
 
+	private boolean testSparse()
+	{
+		int prefetched = 0;
+		int hits = 0;
+		int requests = 0;
+		
+		for (int client = 0; client < sparseTest.size(); ++client){
+			Coordinate c = findBMU(sparseTest, client);
+			float[] prototype = clusters[c.x][c.y].prototype;
+			
+			for (int x = 0; x < n; ++x){
+				for (int y = 0; y < n; ++y){
+					if (clusters[x][y].currentMembers.contains(client)){
+						for (int url = 0; url < dim; url++)
+							if (prototype[url] >= prefetchThreshold)
+								prefetched++;
+						
+						// only the requested urls can be hits
+						for (int i = sparseTest.start(client); i < sparseTest.end(client); i++){
+							if (sparseTest.value(i) == 1.0){
+								requests++;
+								if (prototype[sparseTest.col(i)] >= prefetchThreshold)
+									hits++;
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		System.out.println("Hits: " + hits + ", requests: " + requests +", prefetched: " + prefetched);
+		this.hitrate = hits/(double)requests;
+		this.accuracy = hits/(double)prefetched;
+		
+		return true;
+	}
+	
+	public boolean update(int id, float[] data)
+	{
+		///Present a single (new) input vector to the trained map, using the neighbourhood
+		///and learning rate of the last training epoch, and move the client to its new BMU.
+
+		///The rows of the sparse data can't be changed
+		if (sparseTrain != null)
+			return false;
+
+		if (data.length > dim)
+			expand(data.length);
+		else if (data.length < dim)
+			data = Arrays.copyOf(data, dim);
+
+		if (quantizedTrain != null)
+			quantizedTrain.setRow(id, data);
+		else {
+			while (trainData.size() <= id)
+				trainData.add(new float[dim]);
+			trainData.set(id, data);
+		}
+
+		int last = Math.max(epochs, 1);
+		float r = (n/2)*(1.0f/last);
+		float eta = 0.8f*(1.0f/last);
+
+		Coordinate BMU = findBMU(data);
+		updateNeighbors(findNeighbors(BMU, r), data, eta);
+
+		for (int x = 0; x < n; ++x)
+			for (int y = 0; y < n; ++y)
+				clusters[x][y].currentMembers.remove(id);
+		clusters[BMU.x][BMU.y].currentMembers.add(id);
+
+		resetPrefetch();
+
+		return true;
+	}
+
+
+	private void expand(int newDim){
+		///New urls have been seen, grow the prototypes and the data to the new dimensionality
+		for (int i1 = 0; i1 < n; ++i1)
+			for (int i2 = 0; i2 < n; ++i2)
+				clusters[i1][i2].prototype = Arrays.copyOf(clusters[i1][i2].prototype, newDim);
+		collectPrototypes();
+
+		if (quantizedTrain != null)
+			quantizedTrain.expand(newDim);
+		else
+			padRows(trainData, newDim);
+		padRows(testData, newDim);
+
+		dim = newDim;
+	}
+
+
 	public void showTest()
 	{
 		System.out.println("Initial learning Rate=" + initialLearningRate);
@@ -263,6 +653,45 @@ public class Kohonen extends ClusteringAlgorithm
 	public void setPrefetchThreshold(double prefetchThreshold)
 	{
 		this.prefetchThreshold = prefetchThreshold;
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists, the map is numbered row by row
+	protected int clusterCount()
+	{
+		return n*n;
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return clusters[cluster/n][cluster%n].prototype;
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return clusters[cluster/n][cluster%n].currentMembers;
+	}
+
+	protected double[] parameters()
+	{
+		return new double[] { n, epochs };
+	}
+
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		for (int i = 0; i < n*n; i++) {
+			Cluster c = clusters[i/n][i%n];
+			c.prototype = Arrays.copyOf(prototypes[i], dim);
+			c.norm = SparseData.squaredNorm(c.prototype);
+			c.currentMembers = members.get(i);
+		}
+		collectPrototypes();
+		resetPrefetch();
 	}
 }
 
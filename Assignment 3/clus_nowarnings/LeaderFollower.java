@@ -23,6 +23,9 @@ public class LeaderFollower extends ClusteringAlgorithm
 	{
 		float[] prototype;
 
+		// Squared norm of the prototype, used by the sparse distance
+		double norm;
+
 		Set<Integer> currentMembers;
 
 		public Cluster()
@@ -35,6 +38,10 @@ public class LeaderFollower extends ClusteringAlgorithm
 	private Vector<float[]> trainData;
 	private Vector<float[]> testData;
 
+	// The same data in sparse format, if the algorithm was created with sparse data (the vectors are null then)
+	private SparseData sparseTrain;
+	private SparseData sparseTest;
+
 	// Results of test()
 	private double hitrate;
 	private double accuracy;
@@ -53,27 +60,228 @@ public class LeaderFollower extends ClusteringAlgorithm
 		clusters = new Vector<Cluster>();
 	}
 
+	public LeaderFollower(double maxDis, SparseData trainData, SparseData testData)
+	{
+		this(maxDis, null, null, trainData.dim());
+		this.sparseTrain = trainData;
+		this.sparseTest = testData;
+	}
+
 	public boolean train()
 	{
 		// classify for each trainDataPoint which cluster prototype is its NN,
 		// if the minimal distance < maxDis make it member of the cluster
 		// or else make a new cluster.
+		TrainingMetrics metrics = new TrainingMetrics("leader-follower", 0);
+
+		if (sparseTrain != null) {
+			for (int i = 0; i < sparseTrain.size(); i++)
+				follow(i);
+		}
+		else {
+			for (int i = 0; i < trainData.size(); i++)
+				follow(i, trainData.get(i));
+		}
+		metrics.phase("follow");
+
+		// Leader-follower makes a single pass, every point got its (first) cluster
+		if (hasTrainingListeners()) {
+			metrics.changed = sparseTrain != null ? sparseTrain.size() : trainData.size();
+			metrics.error = sumSquaredError();
+		}
+		fireIteration(metrics);
+
+		resetPrefetch();
 		return true;
 	}
 
+	private double sumSquaredError()
+	{
+		///The sum of the squared distances of all datapoints to the prototype of their cluster
+		double error = 0;
+		for (int i = 0; i < clusters.size(); i++) {
+			Cluster cluster = clusters.get(i);
+
+			for (int member : cluster.currentMembers) {
+				if (sparseTrain != null)
+					error += sparseTrain.squaredDistance(member, cluster.prototype, cluster.norm);
+				else
+					error += Distance.squared(trainData.get(member), cluster.prototype, dim);
+			}
+		}
+		return error;
+	}
+
 	public boolean test()
 	{
+		if (sparseTest != null)
+			return testSparse();
+
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+
 		// iterate along all clients. Assumption: the same clients are in the same order as in the testData
-		// for each client find the cluster of which it is a member
-		// get the actual testData (the vector) of this client
-		// iterate along all dimensions
-		// and count prefetched htmls
-		// count number of hits
-		// count number of requests
+		for (int client = 0; client < testData.size(); client++) {
+			// get the actual testData (the vector) of this client
+			float[] currentClient = testData.get(client);
+
+			// for each client find the cluster of which it is a member
+			for (int i = 0; i < clusters.size(); i++) {
+				Cluster cluster = clusters.get(i);
+				if (cluster.currentMembers.contains(client)) {
+
+					// iterate along all dimensions
+					for (int url = 0; url < dim; url++) {
+						// and count prefetched htmls
+						if (cluster.prototype[url] >= prefetchThreshold)
+							prefetched++;
+
+						// count number of hits
+						if (cluster.prototype[url] >= prefetchThreshold && currentClient[url] == 1.0)
+							hits++;
+
+						// count number of requests
+						if (currentClient[url] == 1.0)
+							requests++;
+					}
+				}
+			}
+		}
+
 		// set the global variables hitrate and accuracy to their appropriate value
+		hitrate = hits/(double)requests;
+		accuracy = hits/(double)prefetched;
+		return true;
+	}
+
+	private boolean testSparse()
+	{
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+
+		for (int client = 0; client < sparseTest.size(); client++) {
+			for (int i = 0; i < clusters.size(); i++) {
+				Cluster cluster = clusters.get(i);
+				if (cluster.currentMembers.contains(client)) {
+					for (int url = 0; url < dim; url++)
+						if (cluster.prototype[url] >= prefetchThreshold)
+							prefetched++;
+
+					// only the requested urls can be hits
+					for (int nz = sparseTest.start(client); nz < sparseTest.end(client); nz++) {
+						if (sparseTest.value(nz) == 1.0) {
+							requests++;
+							if (cluster.prototype[sparseTest.col(nz)] >= prefetchThreshold)
+								hits++;
+						}
+					}
+				}
+			}
+		}
+
+		hitrate = hits/(double)requests;
+		accuracy = hits/(double)prefetched;
 		return true;
 	}
 
+	public boolean update(int id, float[] data)
+	{
+		///Leader-follower is an online algorithm by nature: the closest prototype follows the
+		///new vector if it lies within maxDis, otherwise the vector leads a new cluster.
+
+		///The rows of the sparse data can't be changed
+		if (sparseTrain != null)
+			return false;
+
+		if (data.length > dim)
+			expand(data.length);
+		else if (data.length < dim)
+			data = Arrays.copyOf(data, dim);
+
+		while (trainData.size() <= id)
+			trainData.add(new float[dim]);
+		trainData.set(id, data);
+
+		for (int i = 0; i < clusters.size(); i++)
+			if (clusters.get(i).currentMembers.remove(id))
+				break;
+
+		follow(id, data);
+
+		resetPrefetch();
+
+		return true;
+	}
+
+	private void follow(int id, float[] data)
+	{
+		///Make the vector a member of the closest cluster and move that prototype towards it,
+		///or let it lead a new cluster if no prototype lies within maxDis
+		double minDistance = Double.MAX_VALUE;
+		Cluster chosen = null;
+		for (int i = 0; i < clusters.size(); i++) {
+			double distance = Distance.squared(data, clusters.get(i).prototype, dim);
+			if (distance < minDistance) {
+				minDistance = distance;
+				chosen = clusters.get(i);
+			}
+		}
+
+		if (chosen != null && Math.sqrt(minDistance) < maxDis) {
+			for (int i = 0; i < dim; i++)
+				chosen.prototype[i] += alpha * (data[i] - chosen.prototype[i]);
+		}
+		else {
+			chosen = new Cluster();
+			chosen.prototype = Arrays.copyOf(data, dim);
+			clusters.add(chosen);
+		}
+		chosen.currentMembers.add(id);
+	}
+
+	private void follow(int row)
+	{
+		///Same as above for a row of the sparse data, only its non-zeros are visited (using the prototype norms)
+		double minDistance = Double.MAX_VALUE;
+		Cluster chosen = null;
+		for (int i = 0; i < clusters.size(); i++) {
+			Cluster cluster = clusters.get(i);
+			double distance = sparseTrain.squaredDistance(row, cluster.prototype, cluster.norm);
+			if (distance < minDistance) {
+				minDistance = distance;
+				chosen = cluster;
+			}
+		}
+
+		if (chosen != null && Math.sqrt(minDistance) < maxDis) {
+			// prototype + alpha*(x - prototype) = (1-alpha)*prototype + alpha*x
+			for (int i = 0; i < dim; i++)
+				chosen.prototype[i] *= (1 - alpha);
+			sparseTrain.addTo(row, chosen.prototype, (float) alpha);
+		}
+		else {
+			chosen = new Cluster();
+			chosen.prototype = sparseTrain.toDense(row);
+			clusters.add(chosen);
+		}
+		chosen.norm = SparseData.squaredNorm(chosen.prototype);
+		chosen.currentMembers.add(row);
+	}
+
+	private void expand(int newDim)
+	{
+		///New urls have been seen, grow the prototypes and the data to the new dimensionality
+		for (int i = 0; i < clusters.size(); i++)
+			clusters.get(i).prototype = Arrays.copyOf(clusters.get(i).prototype, newDim);
+
+		padRows(trainData, newDim);
+		padRows(testData, newDim);
+
+		dim = newDim;
+	}
+
 
 	// The following members are called by runClustering, in order to present information to the user
 	public void showTest()
@@ -109,5 +317,45 @@ public class LeaderFollower extends ClusteringAlgorithm
 	public void setPrefetchThreshold(double prefetchThreshold)
 	{
 		this.prefetchThreshold = prefetchThreshold;
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists
+	protected int clusterCount()
+	{
+		return clusters.size();
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return clusters.get(cluster).prototype;
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return clusters.get(cluster).currentMembers;
+	}
+
+	protected double[] parameters()
+	{
+		return new double[] { maxDis, alpha };
+	}
+
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		clusters = new Vector<Cluster>();
+		for (int i = 0; i < prototypes.length; i++) {
+			Cluster cluster = new Cluster();
+			cluster.prototype = Arrays.copyOf(prototypes[i], dim);
+			cluster.norm = SparseData.squaredNorm(cluster.prototype);
+			cluster.currentMembers = members.get(i);
+			clusters.add(cluster);
+		}
+		resetPrefetch();
 	}
 }
@@ -0,0 +1,205 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class ModelStore
+{
+	// Saves and loads trained clustering models, so they don't have to be retrained on every start.
+	// The binary format (big endian) is:
+	//   int    MAGIC, int VERSION
+	//   int    algorithm (1 = k-means, 2 = leader-follower, 3 = kohonen, as in RunClustering)
+	//   long   fingerprint of the train data the model was trained on
+	//   int    dim
+	//   double prefetchThreshold
+	//   int    number of parameters, double[] parameters (see ClusteringAlgorithm.parameters())
+	//   int    number of clusters, then per cluster:
+	//          float[dim] prototype, int number of members, int[] members
+
+	private static final int MAGIC = 0x434c5553;	// "CLUS"
+	private static final int VERSION = 1;
+
+	private static final int KMEANS = 1;
+	private static final int LEADER_FOLLOWER = 2;
+	private static final int KOHONEN = 3;
+
+	private ModelStore()
+	{
+	}
+
+	public static void save(ClusteringAlgorithm ca, String fileName, long fingerprint) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		// Streaming and distributed k-means models are k-means models, they are loaded as one.
+		// A projected model is saved in the original space, as a model of the algorithm that did the clustering.
+		ClusteringAlgorithm type = ca instanceof ProjectedClustering ? ((ProjectedClustering) ca).algorithm() : ca;
+		boolean kmeans = type instanceof KMeans || type instanceof StreamingKMeans || type instanceof DistributedKMeans;
+		out.writeInt(kmeans ? KMEANS : type instanceof LeaderFollower ? LEADER_FOLLOWER : KOHONEN);
+		out.writeLong(fingerprint);
+
+		int clusters = ca.clusterCount();
+		int dim = clusters > 0 ? ca.clusterPrototype(0).length : 0;
+		out.writeInt(dim);
+		out.writeDouble(ca.getPrefetchThreshold());
+
+		double[] parameters = ca.parameters();
+		out.writeInt(parameters.length);
+		for (int i = 0; i < parameters.length; i++)
+			out.writeDouble(parameters[i]);
+
+		out.writeInt(clusters);
+		for (int cluster = 0; cluster < clusters; cluster++) {
+			float[] prototype = ca.clusterPrototype(cluster);
+			for (int i = 0; i < dim; i++)
+				out.writeFloat(prototype[i]);
+
+			Set<Integer> members = ca.clusterMembers(cluster);
+			out.writeInt(members.size());
+			for (int member : members)
+				out.writeInt(member);
+		}
+
+		out.close();
+	}
+
+	// Loads a model by memory-mapping the file. The algorithm is created on the given data, either the dense
+	// vectors or the sparse data (the other is null), so it can be tested or updated like a trained one.
+	// The fingerprint of the model is only compared with the given one if that isn't null.
+	public static ClusteringAlgorithm load(String fileName, Vector<float[]> trainData, Vector<float[]> testData,
+			SparseData sparseTrain, SparseData sparseTest, Long fingerprint) throws IOException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		channel.close();	// the mapping stays valid
+
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException(fileName + " is not a clustering model");
+
+		int algorithm = in.getInt();
+		long modelFingerprint = in.getLong();
+		if (fingerprint != null && modelFingerprint != fingerprint)
+			System.out.println("Warning: the model was trained on different data");
+
+		int dim = in.getInt();
+		///The prototypes must be as wide as the data, a wider model would index past the rows in test()
+		if (sparseTrain != null && sparseTrain.dim() != dim)
+			throw new IOException(fileName + " has " + dim + " urls, the data has " + sparseTrain.dim());
+		if (sparseTest != null && sparseTest.dim() != dim)
+			throw new IOException(fileName + " has " + dim + " urls, the test data has " + sparseTest.dim());
+		if (trainData != null && !trainData.isEmpty() && trainData.get(0).length != dim)
+			throw new IOException(fileName + " has " + dim + " urls, the data has " + trainData.get(0).length);
+		if (testData != null && !testData.isEmpty() && testData.get(0).length != dim)
+			throw new IOException(fileName + " has " + dim + " urls, the test data has " + testData.get(0).length);
+		double prefetchThreshold = in.getDouble();
+
+		double[] parameters = new double[in.getInt()];
+		for (int i = 0; i < parameters.length; i++)
+			parameters[i] = in.getDouble();
+
+		ClusteringAlgorithm ca;
+		switch (algorithm) {
+			case KMEANS:
+				if (sparseTrain != null)
+					ca = new KMeans((int) parameters[0], sparseTrain, sparseTest);
+				else
+					ca = new KMeans((int) parameters[0], trainData, testData, dim);
+				break;
+			case LEADER_FOLLOWER:
+				if (sparseTrain != null)
+					ca = new LeaderFollower(parameters[0], sparseTrain, sparseTest);
+				else
+					ca = new LeaderFollower(parameters[0], trainData, testData, dim);
+				break;
+			case KOHONEN:
+				if (sparseTrain != null)
+					ca = new Kohonen((int) parameters[0], (int) parameters[1], sparseTrain, sparseTest);
+				else
+					ca = new Kohonen((int) parameters[0], (int) parameters[1], trainData, testData, dim);
+				break;
+			default:
+				throw new IOException("unknown algorithm " + algorithm + " in " + fileName);
+		}
+
+		int clusters = in.getInt();
+		float[][] prototypes = new float[clusters][dim];
+		List<Set<Integer>> members = new ArrayList<Set<Integer>>(clusters);
+
+		for (int cluster = 0; cluster < clusters; cluster++) {
+			in.asFloatBuffer().get(prototypes[cluster]);
+			in.position(in.position() + 4 * dim);
+
+			int count = in.getInt();
+			Set<Integer> set = new HashSet<Integer>(count * 2);
+			for (int i = 0; i < count; i++)
+				set.add(in.getInt());
+			members.add(set);
+		}
+
+		ca.restoreClusters(prototypes, members);
+		ca.setPrefetchThreshold(prefetchThreshold);
+
+		return ca;
+	}
+
+	// 64 bit FNV-1a hash of the non-zeros of the data, the same for dense and sparse data
+	public static long fingerprint(Vector<float[]> data)
+	{
+		long hash = 0xcbf29ce484222325L;
+
+		for (int row = 0; row < data.size(); row++)
+			hash = hash(hash, data.get(row));
+
+		return hash;
+	}
+
+	// The fingerprint of a data file that is too large to read at once (see StreamingKMeans)
+	public static long fingerprint(String fileName, int dim, int chunkRows) throws IOException
+	{
+		long hash = 0xcbf29ce484222325L;
+
+		DenseChunkReader reader = new DenseChunkReader(fileName, dim, chunkRows, false);
+		DenseChunkReader.Chunk chunk;
+		while ((chunk = reader.next()) != null)
+			for (int row = 0; row < chunk.size; row++)
+				hash = hash(hash, chunk.rows[row]);
+
+		return hash;
+	}
+
+	public static long fingerprint(SparseData data)
+	{
+		long hash = 0xcbf29ce484222325L;
+
+		for (int row = 0; row < data.size(); row++) {
+			for (int i = data.start(row); i < data.end(row); i++)
+				if (data.value(i) != 0.0f)
+					hash = hash(hash(hash, data.col(i)), Float.floatToIntBits(data.value(i)));
+
+			hash = hash(hash, -1);
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, float[] values)
+	{
+		for (int i = 0; i < values.length; i++)
+			if (values[i] != 0.0f)
+				hash = hash(hash(hash, i), Float.floatToIntBits(values[i]));
+
+		return hash(hash, -1);
+	}
+
+	private static long hash(long hash, int value)
+	{
+		for (int i = 0; i < 4; i++) {
+			hash ^= (value >>> (8 * i)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.*;
+
+public class ProjectedClustering extends ClusteringAlgorithm
+{
+	// Runs a clustering algorithm on randomly projected client vectors (see RandomProjection), so the cost of
+	// a distance no longer grows with the number of urls. The clusters are reported in the original url space:
+	// the prototype of a cluster is the mean of the original vectors of its members, these prototypes are
+	// used for testing, prefetching and saving.
+
+	// The algorithm, created on the projected train and test data
+	private ClusteringAlgorithm algorithm;
+	private RandomProjection projection;
+
+	// The original train and test data
+	private Vector<float[]> trainData;
+	private Vector<float[]> testData;
+	private int dim;
+
+	// Threshold above which the corresponding html is prefetched
+	private double prefetchThreshold;
+
+	// Prototypes in the original space, null until they are needed after a change of the clusters
+	private float[][] prototypes;
+
+	// Results of test()
+	private double hitrate;
+	private double accuracy;
+
+	public ProjectedClustering(ClusteringAlgorithm algorithm, RandomProjection projection, Vector<float[]> trainData, Vector<float[]> testData, int dim)
+	{
+		this.algorithm = algorithm;
+		this.projection = projection;
+		this.trainData = trainData;
+		this.testData = testData;
+		this.dim = dim;
+		prefetchThreshold = algorithm.getPrefetchThreshold();
+	}
+
+	// The algorithm that does the clustering
+	public ClusteringAlgorithm algorithm()
+	{
+		return algorithm;
+	}
+
+	// The algorithm reports the metrics of its training
+	public void addTrainingListener(TrainingListener listener)
+	{
+		algorithm.addTrainingListener(listener);
+	}
+
+	public boolean train()
+	{
+		boolean result = algorithm.train();
+
+		prototypes = null;
+		resetPrefetch();
+		return result;
+	}
+
+	public boolean test()
+	{
+		float[][] prototypes = prototypes();
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+
+		for (int cluster = 0; cluster < prototypes.length; cluster++) {
+			float[] prototype = prototypes[cluster];
+
+			for (int client : algorithm.clusterMembers(cluster)) {
+				if (client >= testData.size())
+					continue;
+
+				float[] currentClient = testData.get(client);
+				for (int url = 0; url < Math.min(dim, currentClient.length); url++) {
+					if (prototype[url] >= prefetchThreshold) {
+						prefetched++;
+						if (currentClient[url] == 1.0)
+							hits++;
+					}
+					if (currentClient[url] == 1.0)
+						requests++;
+				}
+			}
+		}
+
+		this.hitrate = hits / (double) requests;
+		this.accuracy = hits / (double) prefetched;
+
+		return true;
+	}
+
+	public boolean update(int id, float[] data)
+	{
+		if (data.length > dim) {
+			dim = data.length;
+			padRows(trainData, dim);
+			padRows(testData, dim);
+		}
+
+		while (trainData.size() <= id)
+			trainData.add(new float[dim]);
+		trainData.set(id, Arrays.copyOf(data, dim));
+
+		boolean result = algorithm.update(id, projection.project(data));
+
+		prototypes = null;
+		resetPrefetch();
+		return result;
+	}
+
+	// The means of the original vectors of the members of every cluster, 0 for empty clusters
+	private float[][] prototypes()
+	{
+		if (prototypes != null)
+			return prototypes;
+
+		float[][] result = new float[algorithm.clusterCount()][dim];
+		for (int cluster = 0; cluster < result.length; cluster++) {
+			Set<Integer> members = algorithm.clusterMembers(cluster);
+			float[] prototype = result[cluster];
+
+			for (int member : members) {
+				float[] row = trainData.get(member);
+				for (int url = 0; url < row.length; url++)
+					prototype[url] += row[url];
+			}
+
+			if (!members.isEmpty())
+				for (int url = 0; url < dim; url++)
+					prototype[url] /= members.size();
+		}
+
+		prototypes = result;
+		return prototypes;
+	}
+
+	// The following members are called by RunClustering, in order to present information to the user
+	public void showTest()
+	{
+		System.out.println("Prefetch threshold=" + this.prefetchThreshold);
+		System.out.println("Hitrate: " + this.hitrate);
+		System.out.println("Accuracy: " + this.accuracy);
+		System.out.println("Hitrate+Accuracy=" + (this.hitrate + this.accuracy));
+	}
+
+	public void showMembers()
+	{
+		algorithm.showMembers();
+	}
+
+	public void showPrototypes()
+	{
+		float[][] prototypes = prototypes();
+		for (int ic = 0; ic < prototypes.length; ic++) {
+			System.out.print("\nPrototype cluster[" + ic + "] :");
+
+			for (int ip = 0; ip < dim; ip++)
+				System.out.print(prototypes[ic][ip] + " ");
+
+			System.out.println();
+		}
+	}
+
+	public void setPrefetchThreshold(double prefetchThreshold)
+	{
+		this.prefetchThreshold = prefetchThreshold;
+		algorithm.setPrefetchThreshold(prefetchThreshold);
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists
+	protected int clusterCount()
+	{
+		return algorithm.clusterCount();
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return prototypes()[cluster];
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return algorithm.clusterMembers(cluster);
+	}
+
+	protected double[] parameters()
+	{
+		return algorithm.parameters();
+	}
+
+	// The prototypes are in the original space, the projection of a mean is the mean of the projections
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		float[][] projected = new float[prototypes.length][];
+		for (int i = 0; i < prototypes.length; i++)
+			projected[i] = projection.project(prototypes[i]);
+
+		algorithm.restoreClusters(projected, members);
+		this.prototypes = null;
+		resetPrefetch();
+	}
+}
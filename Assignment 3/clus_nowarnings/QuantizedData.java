@@ -0,0 +1,127 @@
+import java.io.*;
+import java.util.*;
+
+public class QuantizedData
+{
+	// Client vectors with every value in [0,1] stored as an unsigned byte: round(value * 255).
+	// The usage data is 0/1 and prototypes are means in [0,1] that are only compared with the prefetch
+	// threshold, so a byte per url is enough to find the closest prototype, at a quarter of the memory
+	// (and memory bandwidth) of a float. The distance kernels work on the bytes with integer sums (see Distance),
+	// values are turned back into floats only to report them and to update prototypes.
+
+	private int dim;
+	private Vector<byte[]> rows = new Vector<byte[]>();
+
+	public QuantizedData(int dim)
+	{
+		this.dim = dim;
+	}
+
+	// Reads a dense data file (like train.dat) straight into bytes, without a float row per client
+	public static QuantizedData read(String fileName) throws IOException
+	{
+		QuantizedData data = null;
+		BufferedReader br = new BufferedReader(new FileReader(fileName), 1 << 16);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				StringTokenizer st = new StringTokenizer(line, " \t\n\r\f,");
+				if (data == null)
+					data = new QuantizedData(st.countTokens());
+				else if (data.dim != st.countTokens())
+					throw new IOException("traindata vectors have different size");
+
+				byte[] bytes = new byte[data.dim];
+				for (int i = 0; i < data.dim; i++)
+					bytes[i] = quantize(Float.parseFloat(st.nextToken()));
+				data.rows.add(bytes);
+			}
+		}
+		finally {
+			br.close();
+		}
+
+		return data != null ? data : new QuantizedData(0);
+	}
+
+	public void addRow(float[] row)
+	{
+		byte[] bytes = new byte[dim];
+		quantize(row, bytes);
+		rows.add(bytes);
+	}
+
+	public int size()
+	{
+		return rows.size();
+	}
+
+	public int dim()
+	{
+		return dim;
+	}
+
+	public byte[] row(int row)
+	{
+		return rows.get(row);
+	}
+
+	// Replaces a row, the rows before it that don't exist yet are zeros
+	public void setRow(int row, float[] values)
+	{
+		while (rows.size() <= row)
+			rows.add(new byte[dim]);
+
+		quantize(values, rows.get(row));
+	}
+
+	// Grows the rows to a larger dimensionality, the new values are 0
+	public void expand(int newDim)
+	{
+		for (int i = 0; i < rows.size(); i++)
+			rows.set(i, Arrays.copyOf(rows.get(i), newDim));
+
+		dim = newDim;
+	}
+
+	// Values outside [0,1] are clamped, NaN becomes 0
+	public static byte quantize(float value)
+	{
+		if (!(value > 0.0f))
+			return 0;
+		if (value >= 1.0f)
+			return (byte) 255;
+
+		return (byte) (int) (value * 255.0f + 0.5f);
+	}
+
+	// Quantizes the first target.length values of row, missing values are 0
+	public static void quantize(float[] row, byte[] target)
+	{
+		int length = Math.min(row.length, target.length);
+		for (int i = 0; i < length; i++)
+			target[i] = quantize(row[i]);
+		for (int i = length; i < target.length; i++)
+			target[i] = 0;
+	}
+
+	public static float value(byte b)
+	{
+		return (b & 0xff) / 255.0f;
+	}
+
+	public static float[] toFloat(byte[] row)
+	{
+		float[] values = new float[row.length];
+		for (int i = 0; i < row.length; i++)
+			values[i] = value(row[i]);
+
+		return values;
+	}
+
+	// A squared distance of quantized rows as a distance of the values
+	public static double scale(long squaredDistance)
+	{
+		return squaredDistance / (255.0 * 255.0);
+	}
+}
@@ -0,0 +1,86 @@
+import java.util.*;
+
+public class RandomProjection
+{
+	// Sparse random projection (Achlioptas) of client vectors to a lower dimension: every url gets a random column
+	// with entries sqrt(3 / reducedDim) * (+1 with probability 1/6, 0 with probability 2/3, -1 with probability 1/6).
+	// Distances are preserved approximately, so the algorithms can cluster the projected vectors.
+	// The column of a url is generated from the seed and the url id when it is first needed, so rows with new
+	// urls (e.g. from an access log) can be projected without knowing the number of urls in advance.
+
+	private final int reducedDim;
+	private final long seed;
+	private final float scale;
+
+	// The non-zeros of the column of every url: target dimensions and signs
+	private int[][] targets = new int[0][];
+	private float[][] signs = new float[0][];
+
+	public RandomProjection(int reducedDim, long seed)
+	{
+		this.reducedDim = reducedDim;
+		this.seed = seed;
+		this.scale = (float) Math.sqrt(3.0 / reducedDim);
+	}
+
+	public int reducedDim()
+	{
+		return reducedDim;
+	}
+
+	public float[] project(float[] row)
+	{
+		float[] projected = new float[reducedDim];
+
+		for (int url = 0; url < row.length; url++) {
+			float value = row[url];
+			if (value == 0.0f)
+				continue;
+
+			column(url);
+			int[] urlTargets = targets[url];
+			float[] urlSigns = signs[url];
+			for (int i = 0; i < urlTargets.length; i++)
+				projected[urlTargets[i]] += urlSigns[i] * value;
+		}
+		return projected;
+	}
+
+	public Vector<float[]> project(Vector<float[]> data)
+	{
+		Vector<float[]> projected = new Vector<float[]>(data.size());
+		for (int row = 0; row < data.size(); row++)
+			projected.add(project(data.get(row)));
+
+		return projected;
+	}
+
+	// Makes sure the column of the url exists
+	private void column(int url)
+	{
+		if (url < targets.length && targets[url] != null)
+			return;
+
+		if (url >= targets.length) {
+			int size = Math.max(url + 1, targets.length * 2);
+			targets = Arrays.copyOf(targets, size);
+			signs = Arrays.copyOf(signs, size);
+		}
+
+		Random random = new Random(seed + url * 0x9E3779B97F4A7C15L);
+		int[] urlTargets = new int[reducedDim];
+		float[] urlSigns = new float[reducedDim];
+		int count = 0;
+
+		for (int i = 0; i < reducedDim; i++) {
+			int draw = random.nextInt(6);
+			if (draw < 2) {
+				urlTargets[count] = i;
+				urlSigns[count++] = draw == 0 ? scale : -scale;
+			}
+		}
+
+		signs[url] = Arrays.copyOf(urlSigns, count);
+		targets[url] = Arrays.copyOf(urlTargets, count);
+	}
+}
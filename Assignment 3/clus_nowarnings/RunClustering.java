@@ -13,10 +13,49 @@ public class RunClustering
 	private static Vector<float[]> trainData;
 	private static Vector<float[]> testData;
 	
-	// Data from these vectors is not used in this implementation. 
-	// For generality they are included
+	// The train/test data if it was read from sparse files, trainData and testData are null then
+	private static SparseData sparseTrainData;
+	private static SparseData sparseTestData;
+	
+	// With -Dclustering.streaming=true dense train and test files stay on disk: K-means reads them in chunks of
+	// -Dclustering.chunk=<rows> rows (see StreamingKMeans), -Dclustering.overlap=true reads the next chunk
+	// while the current one is used. The other algorithms read the data into memory when they are chosen.
+	private static String streamTrainFileName;
+	private static String streamTestFileName;
+	
+	// With -Dclustering.workers=<n> dense K-means is trained by n worker processes (see DistributedKMeans),
+	// which read this file themselves. -Dclustering.seed=<seed> repeats the random partition of K-means.
+	// -Dclustering.canopy=<t1>,<t2> lets dense K-means use canopies (see Canopies) with these Hamming distances.
+	private static String trainFileName;
+	
+	// With -Dclustering.projection=<dim> the algorithms cluster the dense data projected to dim dimensions
+	// (see RandomProjection and ProjectedClustering), the results are still reported per url
+	private static RandomProjection projection;
+	private static Vector<float[]> projectedTrainData;
+	private static Vector<float[]> projectedTestData;
+	
+	// With -Dclustering.quantized=true the dense train file is read as bytes (see QuantizedData) instead of
+	// floats, and dense K-means and Kohonen train on the bytes (K-means without canopies then). trainData is
+	// null then, the other algorithms read the floats when they are chosen. Projected data isn't in [0,1],
+	// so it is never quantized.
+	private static QuantizedData quantizedTrainData;
+	
+	private static boolean quantized()
+	{
+		return quantizedTrainData != null && (projection == null || trainData != projectedTrainData);
+	}
+	
+	// The url and host lookup lists (requests.dat and clients.dat), used when streaming access logs
 	private static Vector<String> requestsVector;
 	private static Vector<String> clientsVector;
+
+	// Feeds access logs to the current algorithm (see streamAccessLog)
+	private static AccessLogIngester ingester;
+	
+	// Receives the training metrics of the algorithm being trained (see addTrainingListeners), the first
+	// training writes a new file and the next ones append to it
+	private static CsvTrainingListener csvListener;
+	private static boolean csvAppend;
 	
 	public static BufferedReader in;
 
@@ -43,15 +82,17 @@ public class RunClustering
 		while (true) {
 			if (startUp) {
 				 // Ask for algoritm ans its apropriate parameters. Algorithm gets copies of the datavectors (fail-prove)
-				initializeAlgorithm();
-
-				// Training
-				System.out.print("Perform the actual training! (hit enter)"); 
-				// You wait for authorisation because in real applications,training and or testing may take days.
-				waitForAuthorisation();   
-				System.out.println("Training ...");
-				ca.train();
-				System.out.println("Training finished.");
+				// A loaded model is trained already
+				if (!initializeAlgorithm()) {
+					// Training
+					System.out.print("Perform the actual training! (hit enter)"); 
+					// You wait for authorisation because in real applications,training and or testing may take days.
+					waitForAuthorisation();   
+					System.out.println("Training (" + Distance.kernel() + ") ...");
+					ca.train();
+					closeTrainingListeners();
+					System.out.println("Training finished.");
+				}
 				
 				// Testing
 				System.out.print("Perform the testing! (hit enter)");  
@@ -70,7 +111,7 @@ public class RunClustering
 	{
 		int algID=4;
 		while (true) {
-			System.out.print("Run K-means (1), Leader-Follower(2), Kohonen SOM (3) or Quit(4) ? ");
+			System.out.print("Run K-means (1), Leader-Follower(2), Kohonen SOM (3), Quit(4) or Load a trained model(5) ? ");
 			String line="";
 			try {
 				if ((line = in.readLine()) == null)
@@ -78,7 +119,7 @@ public class RunClustering
 				
 				algID = (new Integer(line)).intValue();
 				
-				if ((algID > 0) && (algID < 5))
+				if ((algID > 0) && (algID < 6))
 					break;
 			}
 			catch (Exception e) {
@@ -93,11 +134,11 @@ public class RunClustering
 	{
 		int resultID=0;
 		while (true) {
-			System.out.print("Show output printTest(1), vector members(2), vector prototypes(3), Quit(4) or set prefetchThreshold(5)? ");
+			System.out.print("Show output printTest(1), vector members(2), vector prototypes(3), Quit(4), set prefetchThreshold(5), stream access log(6), prefetch for client(7) or save model(8)? ");
 			String line="";
 			try {
 				resultID = (new Integer(in.readLine())).intValue();
-				if ((resultID > 0)&&(resultID < 6)) 
+				if ((resultID > 0)&&(resultID < 9)) 
 					break;
 			}
 			catch(Exception e){
@@ -108,24 +149,107 @@ public class RunClustering
 		return resultID;
 	}
 	
-	public static void initializeAlgorithm()
+	// Returns true if a trained model was loaded instead
+	public static boolean initializeAlgorithm()
 	{
 		// determine which algorithm is requested (chooseAlgorithm), and ask for corresponding parameters
-		switch (chooseAlgorithm()) {
+		ingester = null;
+		boolean loaded = false;
+		int algorithm = chooseAlgorithm();
+		// A model that can't be loaded asks for an algorithm again
+		while (algorithm == 5 && !(loaded = loadModel()))
+			algorithm = chooseAlgorithm();
+		
+		// The algorithm is created on the projected data, then wrapped so it reports in the original space
+		boolean project = Integer.getInteger("clustering.projection", 0) > 0 && algorithm <= 3
+				&& (trainData != null || quantizedTrainData != null)
+				&& (algorithm != 1 || Integer.getInteger("clustering.workers", 0) == 0);
+		if (project)
+			readDenseData();
+		Vector<float[]> originalTrainData = trainData;
+		Vector<float[]> originalTestData = testData;
+		int originalDim = dim;
+		if (project) {
+			projectData();
+			trainData = projectedTrainData;
+			testData = projectedTestData;
+			dim = projection.reducedDim();
+		}
+		
+		switch (algorithm) {
 			case 1:
 				kmeansInit();
 				break;
 			case 2:
+				readDenseData();
 				leaderFollowerInit();
 				break;
 			case 3:
+				if (!quantized())
+					readDenseData();
 				kohonenInit();
 				break;
 			case 4:
 				System.exit(0);
+				break;
+			case 5:
+				break;			///loaded above
+		}
+		
+		if (project) {
+			trainData = originalTrainData;
+			testData = originalTestData;
+			dim = originalDim;
+			ca = new ProjectedClustering(ca, projection, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
 		}
+		ca.setRequests(requestsVector);
+		if (!loaded)
+			addTrainingListeners();
+		return loaded;
 	 }
 	
+	private static void projectData()
+	{
+		if (projection != null)
+			return;
+		
+		Long seed = Long.getLong("clustering.seed");
+		projection = new RandomProjection(Integer.getInteger("clustering.projection"), seed != null ? seed : new Random().nextLong());
+		
+		long start = System.currentTimeMillis();
+		projectedTrainData = projection.project(trainData);
+		projectedTestData = projection.project(testData);
+		System.out.println("Projected " + dim + " to " + projection.reducedDim() + " dimensions in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	// Training metrics are written to the CSV file in -Dclustering.metrics.csv=<file>
+	// and/or published over JMX with -Dclustering.metrics.jmx=true
+	private static void addTrainingListeners()
+	{
+		try {
+			String csvFileName = System.getProperty("clustering.metrics.csv");
+			if (csvFileName != null) {
+				csvListener = new CsvTrainingListener(csvFileName, csvAppend);
+				csvAppend = true;
+				ca.addTrainingListener(csvListener);
+			}
+			
+			if (Boolean.getBoolean("clustering.metrics.jmx"))
+				ca.addTrainingListener(new JmxTrainingListener());
+		}
+		catch (Exception e) {
+			System.out.println("error occured while adding training listeners:"+e);
+		}
+	}
+	
+	private static void closeTrainingListeners()
+	{
+		if (csvListener != null) {
+			csvListener.close();
+			csvListener = null;
+		}
+	}
+	
 	public static void kmeansInit()
 	{
 		int k = 0;
@@ -142,7 +266,43 @@ public class RunClustering
 		
 		// The k-means model is now created
 		// java doesn't have a 'const' specifier, so for safety objects are copied
-		ca = new KMeans(k, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
+		int workers = Integer.getInteger("clustering.workers", 0);
+		Long seed = Long.getLong("clustering.seed");
+		
+		if (streamTrainFileName != null) {
+			StreamingKMeans streaming = new StreamingKMeans(k, streamTrainFileName, streamTestFileName, dim, Integer.getInteger("clustering.chunk", 1024), Boolean.getBoolean("clustering.overlap"));
+			if (seed != null)
+				streaming.setSeed(seed);
+			ca = streaming;
+		}
+		else if (sparseTrainData != null) {
+			KMeans kmeans = new KMeans(k, sparseTrainData, sparseTestData);
+			if (seed != null)
+				kmeans.setSeed(seed);
+			ca = kmeans;
+		}
+		else if (workers > 0) {
+			DistributedKMeans distributed = new DistributedKMeans(k, workers, trainFileName, new Vector<float[]>(testData), dim);
+			if (seed != null)
+				distributed.setSeed(seed);
+			ca = distributed;
+		}
+		else {
+			KMeans kmeans;
+			if (quantized())
+				kmeans = new KMeans(k, quantizedTrainData, new Vector<float[]>(testData));
+			else
+				kmeans = new KMeans(k, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
+			if (seed != null)
+				kmeans.setSeed(seed);
+			
+			String canopy = System.getProperty("clustering.canopy");
+			if (canopy != null) {
+				String[] thresholds = canopy.split(",");
+				kmeans.setCanopies(Double.parseDouble(thresholds[0]), Double.parseDouble(thresholds[thresholds.length - 1]));
+			}
+			ca = kmeans;
+		}
 	}
 	
 	public static void leaderFollowerInit()
@@ -161,7 +321,10 @@ public class RunClustering
 		
 		// The leader-follower model is now created
 		// java doesn't have a 'const' specifier, so for safety objects are passed by reference
-		ca = new LeaderFollower(dis, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
+		if (sparseTrainData != null)
+			ca = new LeaderFollower(dis, sparseTrainData, sparseTestData);
+		else
+			ca = new LeaderFollower(dis, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
 	}
 	
 	public static void kohonenInit()
@@ -193,7 +356,21 @@ public class RunClustering
 		
 		// The kohonen model is now created
 		// java doesn't have a 'const' specifier, so for safety objects are passed by reference
-		ca = new Kohonen(n, epochs, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
+		Kohonen kohonen;
+		if (sparseTrainData != null)
+			kohonen = new Kohonen(n, epochs, sparseTrainData, sparseTestData);
+		else if (quantized())
+			kohonen = new Kohonen(n, epochs, quantizedTrainData, new Vector<float[]>(testData));
+		else
+			kohonen = new Kohonen(n, epochs, new Vector<float[]>(trainData), new Vector<float[]>(testData), dim);
+		
+		// With -Dclustering.tolerance=<t> training skips half of the remaining epochs whenever the quantization
+		// error on a sample of -Dclustering.sample=<rows> rows improves less than t (relative) in an epoch and
+		// the prototypes moved less than t times that error (see Kohonen.Convergence)
+		String tolerance = System.getProperty("clustering.tolerance");
+		if (tolerance != null)
+			kohonen.setConvergence(Double.parseDouble(tolerance), Integer.getInteger("clustering.sample", 1000));
+		ca = kohonen;
 	}
 	
 	public static boolean showResult()
@@ -221,14 +398,145 @@ public class RunClustering
 					ca.test();
 				}
 				catch (Exception e){}
+				break;
+			case 6:
+				streamAccessLog();
+				break;
+			case 7:
+				showPrefetch();
+				break;
+			case 8:
+				saveModel();
 		}  
 		return ret_val;
 	}
 
+	// Reads a Common Log Format access log and updates the trained algorithm with every new request in it
+	public static void streamAccessLog()
+	{
+		System.out.print("Access log file ? ");
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(in.readLine()));
+
+			// The ingester keeps the client vectors, so the next log continues where this one stopped
+			if (ingester == null)
+				ingester = new AccessLogIngester(ca, requestsVector, clientsVector, clientRows());
+
+			System.out.println("Streaming access log...");
+			ingester.ingest(br);
+			ingester.showIngest();
+
+			br.close();
+		}
+		catch (Exception e) {
+			System.out.println("error occured while reading access log:"+e);
+		}
+	}
+
+	// Asks for a model file and loads it, returns false if that fails. The train data isn't fingerprinted
+	// (or read, when it is streamed) to check that the model was trained on it, unless -Dclustering.verify=true;
+	// a streamed model starts without the train rows, like the access log ingester.
+	public static boolean loadModel()
+	{
+		System.out.print("Model file ? ");
+		try {
+			String modelFileName = in.readLine();
+			long start = System.currentTimeMillis();
+			if (streamTrainFileName != null && testData == null) {
+				testData = new Vector<float[]>();
+				readTestData(streamTestFileName);
+			}
+			Long fingerprint = Boolean.getBoolean("clustering.verify") ? fingerprint() : null;
+			ca = ModelStore.load(modelFileName, trainData != null ? new Vector<float[]>(trainData) : new Vector<float[]>(),
+					testData != null ? new Vector<float[]>(testData) : null, sparseTrainData, sparseTestData, fingerprint);
+			System.out.println("Loaded " + modelFileName + " in " + (System.currentTimeMillis() - start) + " ms");
+			return true;
+		}
+		catch (Exception e) {
+			System.out.println("error occured while loading model:"+e);
+			return false;
+		}
+	}
+	
+	public static void saveModel()
+	{
+		System.out.print("Model file ? ");
+		try {
+			String modelFileName = in.readLine();
+			ModelStore.save(ca, modelFileName, fingerprint());
+			System.out.println("Saved " + modelFileName);
+		}
+		catch (Exception e) {
+			System.out.println("error occured while saving model:"+e);
+		}
+	}
+	
+	// The client vectors the ingester starts from: the train data, empty when it is streamed
+	private static Vector<float[]> clientRows()
+	{
+		if (trainData != null)
+			return trainData;
+		
+		Vector<float[]> rows = new Vector<float[]>();
+		if (quantizedTrainData != null)
+			for (int row = 0; row < quantizedTrainData.size(); row++)
+				rows.add(QuantizedData.toFloat(quantizedTrainData.row(row)));
+		return rows;
+	}
+
+	private static long fingerprint() throws IOException
+	{
+		if (sparseTrainData != null)
+			return ModelStore.fingerprint(sparseTrainData);
+		if (trainData == null)
+			return ModelStore.fingerprint(streamTrainFileName != null ? streamTrainFileName : trainFileName, dim, Integer.getInteger("clustering.chunk", 1024));
+
+		return ModelStore.fingerprint(trainData);
+	}
+
+	// Asks for a client (host or id) and shows the urls that would be prefetched for it
+	public static void showPrefetch()
+	{
+		System.out.print("Client ? ");
+		try {
+			String client = in.readLine().trim();
+			int id = clientsVector != null ? clientsVector.indexOf(client) : -1;
+			if (id < 0)
+				id = Integer.parseInt(client);
+
+			long start = System.nanoTime();
+			int[] urls = ca.prefetch(id);
+			long time = System.nanoTime() - start;
+
+			for (String url : ca.prefetchUrls(urls))
+				System.out.println(url);
+			System.out.println(urls.length + " urls to prefetch for client " + id + " (" + (time / 1000.0) + " us)");
+		}
+		catch (Exception e) {
+			System.out.println("unknown client:"+e);
+		}
+	}
+
 	public static void readData()
 	{
-		trainData = new Vector<float[]>();
-		readTrainData("train.dat");
+		requestsVector = new Vector<String>();
+		readRequests("requests.dat");
+
+		clientsVector  = new Vector<String>();
+		readClients("clients.dat");
+
+		if (Boolean.getBoolean("clustering.streaming")) {
+			streamData("train.dat", "test.dat");
+			return;
+		}
+
+		trainFileName = "train.dat";
+		if (Boolean.getBoolean("clustering.quantized"))
+			readQuantizedData("train.dat");
+		else {
+			trainData = new Vector<float[]>();
+			readTrainData("train.dat");
+		}
 
 		testData  = new Vector<float[]>();
 		readTestData("test.dat");
@@ -236,18 +544,97 @@ public class RunClustering
 
 	public static void readData(String trainFileName, String testFileName, String requestFileName, String clientFileName)
 	{
+		dim = 0;	// determined by the files
+
 		requestsVector = new Vector<String>();
 		readRequests(requestFileName);
 
 		clientsVector  = new Vector<String>();
 		readClients(clientFileName);
 		
-		trainData = new Vector<float[]>();
-		readTrainData(trainFileName);
+		// Sparse data files only list the urls each client requested (see SparseData)
+		if (trainFileName.endsWith(".sparse")) {
+			readSparseData(trainFileName, testFileName);
+			return;
+		}
+		
+		if (Boolean.getBoolean("clustering.streaming")) {
+			streamData(trainFileName, testFileName);
+			return;
+		}
+		
+		RunClustering.trainFileName = trainFileName;
+		if (Boolean.getBoolean("clustering.quantized"))
+			readQuantizedData(trainFileName);
+		else {
+			trainData = new Vector<float[]>();
+			readTrainData(trainFileName);
+		}
 		
 		testData  = new Vector<float[]>();
 		readTestData(testFileName);
 	}
+	
+	private static void streamData(String trainFileName, String testFileName)
+	{
+		streamTrainFileName = trainFileName;
+		streamTestFileName = testFileName;
+		
+		try {
+			dim = DenseChunkReader.dim(trainFileName);
+		}
+		catch (Exception e) {
+			System.out.println("error occured while reading traindata:"+e);
+			System.exit(1);
+		}
+	}
+	
+	// Reads the streamed train and test files, or the quantized train file, into memory as floats,
+	// for the algorithms that can't stream or train on bytes
+	private static void readDenseData()
+	{
+		if (trainData != null || (streamTrainFileName == null && quantizedTrainData == null))
+			return;
+		
+		System.out.println("Reading the data into memory...");
+		trainData = new Vector<float[]>();
+		readTrainData(streamTrainFileName != null ? streamTrainFileName : trainFileName);
+		
+		if (streamTestFileName != null) {
+			testData  = new Vector<float[]>();
+			readTestData(streamTestFileName);
+		}
+	}
+	
+	private static void readQuantizedData(String trainFileName)
+	{
+		try {
+			quantizedTrainData = QuantizedData.read(trainFileName);
+		}
+		catch (Exception e) {
+			System.out.println("error occured while reading traindata:"+e);
+			System.exit(1);
+		}
+		
+		dim = quantizedTrainData.dim();
+	}
+	
+	private static void readSparseData(String trainFileName, String testFileName)
+	{
+		try {
+			sparseTrainData = SparseData.read(trainFileName);
+			sparseTestData = SparseData.read(testFileName);
+		}
+		catch (Exception e) {
+			System.out.println("error occured while reading sparse data:"+e);
+			System.exit(1);
+		}
+		
+		// Every url in requests.dat is a dimension, even if no client requested it
+		dim = Math.max(requestsVector.size(), Math.max(sparseTrainData.dim(), sparseTestData.dim()));
+		sparseTrainData.setDim(dim);
+		sparseTestData.setDim(dim);
+	}
 	 
 	private static void readTrainData(String trainFileName)
 	{
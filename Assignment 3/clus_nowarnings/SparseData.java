@@ -0,0 +1,225 @@
+import java.io.*;
+import java.util.*;
+
+public class SparseData
+{
+	// A client x url matrix in compressed sparse row (CSR) format. Only the non-zeros are stored:
+	// the urls of row r are cols[rowStart[r] .. rowStart[r+1]-1] with their values in values[].
+	// A client requests only a few of all urls, so this is much smaller than a float[dim] per client.
+
+	private int rows;
+	private int dim;
+
+	private int[] rowStart;
+	private int[] cols;
+	private float[] values;
+
+	// Squared norm ||x||^2 of every row
+	private double[] norms;
+
+	public SparseData(int dim)
+	{
+		this.dim = dim;
+		rowStart = new int[17];
+		cols = new int[64];
+		values = new float[64];
+		norms = new double[16];
+	}
+
+	// Appends a row, the urls (cols) must be sorted and unique
+	public void addRow(int[] rowCols, float[] rowValues, int length)
+	{
+		int nonZeros = rowStart[rows];
+
+		if (rows == norms.length) {
+			norms = Arrays.copyOf(norms, rows * 2);
+			rowStart = Arrays.copyOf(rowStart, rows * 2 + 1);
+		}
+		if (nonZeros + length > cols.length) {
+			int size = Math.max(cols.length * 2, nonZeros + length);
+			cols = Arrays.copyOf(cols, size);
+			values = Arrays.copyOf(values, size);
+		}
+
+		double norm = 0;
+		for (int i = 0; i < length; i++) {
+			cols[nonZeros + i] = rowCols[i];
+			values[nonZeros + i] = rowValues[i];
+			norm += rowValues[i] * rowValues[i];
+
+			if (rowCols[i] >= dim)
+				dim = rowCols[i] + 1;
+		}
+
+		norms[rows] = norm;
+		rowStart[++rows] = nonZeros + length;
+	}
+
+	public static SparseData fromDense(Vector<float[]> data, int dim)
+	{
+		SparseData sparse = new SparseData(dim);
+		int[] rowCols = new int[dim];
+		float[] rowValues = new float[dim];
+
+		for (int r = 0; r < data.size(); r++) {
+			float[] row = data.get(r);
+			int length = 0;
+			for (int i = 0; i < dim; i++) {
+				if (row[i] != 0.0f) {
+					rowCols[length] = i;
+					rowValues[length++] = row[i];
+				}
+			}
+			sparse.addRow(rowCols, rowValues, length);
+		}
+		return sparse;
+	}
+
+	// Reads the sparse text format: one line per client with the (0 based) ids of the requested urls,
+	// a url may be followed by its value (url:value), otherwise the value is 1.0. A negative url or
+	// a url that is listed twice on a line is an error (its value would count twice in the norm).
+	public static SparseData read(String fileName) throws IOException
+	{
+		SparseData sparse = new SparseData(0);
+		int[] rowCols = new int[16];
+		float[] rowValues = new float[16];
+
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				StringTokenizer st = new StringTokenizer(line, " \t\n\r\f,");
+				int length = 0;
+
+				while (st.hasMoreTokens()) {
+					String token = st.nextToken();
+					int colon = token.indexOf(':');
+
+					if (length == rowCols.length) {
+						rowCols = Arrays.copyOf(rowCols, length * 2);
+						rowValues = Arrays.copyOf(rowValues, length * 2);
+					}
+
+					if (colon < 0) {
+						rowCols[length] = Integer.parseInt(token);
+						rowValues[length] = 1.0f;
+					}
+					else {
+						rowCols[length] = Integer.parseInt(token.substring(0, colon));
+						rowValues[length] = Float.parseFloat(token.substring(colon + 1));
+					}
+					if (rowCols[length] < 0)
+						throw new IOException(fileName + ":" + lineNumber + ": negative url " + rowCols[length]);
+					length++;
+				}
+
+				sort(rowCols, rowValues, length);
+				for (int i = 1; i < length; i++)
+					if (rowCols[i] == rowCols[i - 1])
+						throw new IOException(fileName + ":" + lineNumber + ": url " + rowCols[i] + " is listed twice");
+				sparse.addRow(rowCols, rowValues, length);
+			}
+		}
+		finally {
+			br.close();
+		}
+
+		return sparse;
+	}
+
+	// Insertion sort of the urls of a row, lines are short and mostly sorted already
+	private static void sort(int[] rowCols, float[] rowValues, int length)
+	{
+		for (int i = 1; i < length; i++) {
+			int col = rowCols[i];
+			float value = rowValues[i];
+			int j = i - 1;
+
+			while (j >= 0 && rowCols[j] > col) {
+				rowCols[j + 1] = rowCols[j];
+				rowValues[j + 1] = rowValues[j];
+				j--;
+			}
+			rowCols[j + 1] = col;
+			rowValues[j + 1] = value;
+		}
+	}
+
+	public int size()
+	{
+		return rows;
+	}
+
+	public int dim()
+	{
+		return dim;
+	}
+
+	// Makes the matrix wider, e.g. to match the number of urls in requests.dat
+	public void setDim(int dim)
+	{
+		this.dim = Math.max(this.dim, dim);
+	}
+
+	// The non-zeros of row r are start(r) .. end(r)-1
+	public int start(int row)
+	{
+		return rowStart[row];
+	}
+
+	public int end(int row)
+	{
+		return rowStart[row + 1];
+	}
+
+	public int col(int i)
+	{
+		return cols[i];
+	}
+
+	public float value(int i)
+	{
+		return values[i];
+	}
+
+	public float[] toDense(int row)
+	{
+		float[] dense = new float[dim];
+		for (int i = rowStart[row]; i < rowStart[row + 1]; i++)
+			dense[cols[i]] = values[i];
+
+		return dense;
+	}
+
+	// sum += scale * row
+	public void addTo(int row, float[] sum, float scale)
+	{
+		for (int i = rowStart[row]; i < rowStart[row + 1]; i++)
+			sum[cols[i]] += scale * values[i];
+	}
+
+	// ||x - p||^2 = ||x||^2 - 2 x.p + ||p||^2, where x.p only runs over the non-zeros of x
+	public double squaredDistance(int row, float[] prototype, double prototypeNorm)
+	{
+		double dot = 0;
+		for (int i = rowStart[row]; i < rowStart[row + 1]; i++)
+			dot += values[i] * prototype[cols[i]];
+
+		double distance = norms[row] - 2 * dot + prototypeNorm;
+
+		// Rounding can make the distance of (almost) equal vectors slightly negative. The prototype of an empty
+		// cluster is NaN, which must stay NaN so the cluster is never the closest (as with Distance.squared)
+		return distance < 0 ? 0 : distance;
+	}
+
+	public static double squaredNorm(float[] prototype)
+	{
+		double norm = 0;
+		for (int i = 0; i < prototype.length; i++)
+			norm += prototype[i] * prototype[i];
+
+		return norm;
+	}
+}
@@ -0,0 +1,315 @@
+import java.io.*;
+import java.util.*;
+
+public class StreamingKMeans extends ClusteringAlgorithm
+{
+	// Out-of-core k-means: the train and test data stay on disk and every Lloyd pass reads the train file
+	// in chunks (see DenseChunkReader). Only the k prototypes, the k sums and counts of the current pass
+	// and one or two chunks are kept in memory, so the data can be much larger than the heap.
+	// Training starts with a random partition like KMeans and stops when a pass doesn't change the
+	// prototypes any more, which is when the cluster memberships are stable.
+
+	// Number of clusters
+	private int k;
+
+	// Dimensionality of the vectors
+	private int dim;
+
+	// Threshold above which the corresponding html is prefetched
+	private double prefetchThreshold;
+
+	private String trainFileName;
+	private String testFileName;
+	private int chunkRows;
+	private boolean overlap;
+
+	private float[][] prototypes;
+
+	// Sums and counts of the members of every cluster in the current pass
+	private double[][] sums;
+	private int[] counts;
+
+	// The members are only collected when they are asked for (one more pass), null until then
+	private List<Set<Integer>> members;
+
+	// Draws the random partition, seeded to repeat a run
+	private Random randomizer = new Random();
+
+	// Results of test()
+	private double hitrate;
+	private double accuracy;
+
+	public StreamingKMeans(int k, String trainFileName, String testFileName, int dim, int chunkRows, boolean overlap)
+	{
+		this.k = k;
+		this.trainFileName = trainFileName;
+		this.testFileName = testFileName;
+		this.dim = dim;
+		this.chunkRows = chunkRows;
+		this.overlap = overlap;
+		prefetchThreshold = 0.5;
+
+		prototypes = new float[k][dim];
+		sums = new double[k][dim];
+		counts = new int[k];
+	}
+
+	public boolean train()
+	{
+		try {
+			System.out.println("RandomPartition");
+			this.pass(true);
+			this.calculateProtoypes();
+
+			int iteration = 0;
+			boolean stable = false;
+			while (!stable) {
+				TrainingMetrics metrics = new TrainingMetrics("streaming k-means", iteration++);
+				metrics.changed = -1;
+
+				System.out.println("Partition");
+				metrics.error = this.pass(false);
+				metrics.phase("partition");
+
+				System.out.println("CalculatingPrototypes");
+				stable = !this.calculateProtoypes();
+				metrics.phase("prototypes");
+
+				this.fireIteration(metrics);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("error occured while reading traindata:" + e);
+			return false;
+		}
+
+		members = null;
+		this.resetPrefetch();
+
+		return true;
+	}
+
+	// Reads the train file once, adding every row to the sum of its closest (or a random) cluster.
+	// Returns the sum of squared distances of the rows to their prototype.
+	private double pass(boolean random) throws IOException
+	{
+		for (int cluster = 0; cluster < k; cluster++) {
+			Arrays.fill(sums[cluster], 0.0);
+			counts[cluster] = 0;
+		}
+
+		double error = 0;
+
+		// The reader is closed at the end of the file, or here when reading fails halfway
+		DenseChunkReader reader = new DenseChunkReader(trainFileName, dim, chunkRows, overlap);
+		try {
+			DenseChunkReader.Chunk chunk;
+			while ((chunk = reader.next()) != null) {
+				for (int row = 0; row < chunk.size; row++) {
+					float[] user = chunk.rows[row];
+
+					int cluster;
+					if (random) {
+						cluster = randomizer.nextInt(k);
+					}
+					else {
+						cluster = Distance.nearest(user, prototypes, dim);
+						error += Distance.squared(user, prototypes[cluster], dim);
+					}
+
+					double[] sum = sums[cluster];
+					for (int url = 0; url < dim; url++)
+						sum[url] += user[url];
+					counts[cluster]++;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		return error;
+	}
+
+	// The prototypes become the means of the sums, returns false if none of them changed
+	private boolean calculateProtoypes()
+	{
+		boolean changed = false;
+
+		for (int cluster = 0; cluster < k; cluster++) {
+			float[] prototype = prototypes[cluster];
+
+			for (int url = 0; url < dim; url++) {
+				// An empty cluster gets a NaN prototype like in KMeans, it never attracts members again
+				float mean = (float) (sums[cluster][url] / counts[cluster]);
+				if (Float.floatToIntBits(mean) != Float.floatToIntBits(prototype[url])) {
+					prototype[url] = mean;
+					changed = true;
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	// Reads the train and test file side by side, the rows of a client have the same index in both
+	public boolean test()
+	{
+		int prefetched = 0;
+		int requests = 0;
+		int hits = 0;
+
+		// the number of prefetched htmls only depends on the cluster
+		int[] prefetchedCluster = new int[k];
+		for (int cluster = 0; cluster < k; cluster++)
+			for (int url = 0; url < dim; url++)
+				if (prototypes[cluster][url] >= prefetchThreshold)
+					prefetchedCluster[cluster]++;
+
+		try {
+			DenseChunkReader trainReader = new DenseChunkReader(trainFileName, dim, chunkRows, overlap);
+			DenseChunkReader testReader = null;
+			try {
+				testReader = new DenseChunkReader(testFileName, dim, chunkRows, overlap);
+				DenseChunkReader.Chunk trainChunk;
+				DenseChunkReader.Chunk testChunk;
+
+				while ((trainChunk = trainReader.next()) != null && (testChunk = testReader.next()) != null) {
+					for (int row = 0; row < Math.min(trainChunk.size, testChunk.size); row++) {
+						int cluster = Distance.nearest(trainChunk.rows[row], prototypes, dim);
+						float[] prototype = prototypes[cluster];
+						float[] client = testChunk.rows[row];
+
+						prefetched += prefetchedCluster[cluster];
+						for (int url = 0; url < dim; url++) {
+							if (client[url] == 1.0) {
+								requests++;
+								if (prototype[url] >= prefetchThreshold)
+									hits++;
+							}
+						}
+					}
+				}
+			}
+			finally {
+				// One of the files can be longer, its other rows have no counterpart
+				trainReader.close();
+				if (testReader != null)
+					testReader.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("error occured while reading testdata:" + e);
+			return false;
+		}
+
+		this.hitrate = hits / (double) requests;
+		this.accuracy = hits / (double) prefetched;
+
+		return true;
+	}
+
+	// The members of every cluster, collected by one pass over the train file
+	private List<Set<Integer>> members()
+	{
+		if (members != null)
+			return members;
+
+		List<Set<Integer>> result = new ArrayList<Set<Integer>>(k);
+		for (int cluster = 0; cluster < k; cluster++)
+			result.add(new HashSet<Integer>());
+
+		try {
+			DenseChunkReader reader = new DenseChunkReader(trainFileName, dim, chunkRows, overlap);
+			try {
+				DenseChunkReader.Chunk chunk;
+				while ((chunk = reader.next()) != null)
+					for (int row = 0; row < chunk.size; row++)
+						result.get(Distance.nearest(chunk.rows[row], prototypes, dim)).add(chunk.first + row);
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("error occured while reading traindata:" + e);
+		}
+
+		members = result;
+		return members;
+	}
+
+	// The following members are called by RunClustering, in order to present information to the user
+	public void showTest()
+	{
+		System.out.println("Prefetch threshold=" + this.prefetchThreshold);
+		System.out.println("Hitrate: " + this.hitrate);
+		System.out.println("Accuracy: " + this.accuracy);
+		System.out.println("Hitrate+Accuracy=" + (this.hitrate + this.accuracy));
+	}
+
+	public void showMembers()
+	{
+		for (int i = 0; i < k; i++)
+			System.out.println("\nMembers cluster[" + i + "] :" + members().get(i));
+	}
+
+	public void showPrototypes()
+	{
+		for (int ic = 0; ic < k; ic++) {
+			System.out.print("\nPrototype cluster[" + ic + "] :");
+
+			for (int ip = 0; ip < dim; ip++)
+				System.out.print(prototypes[ic][ip] + " ");
+
+			System.out.println();
+		}
+	}
+
+	public void setSeed(long seed)
+	{
+		randomizer = new Random(seed);
+	}
+
+	// With this function you can set the prefetch threshold.
+	public void setPrefetchThreshold(double prefetchThreshold)
+	{
+		this.prefetchThreshold = prefetchThreshold;
+		resetPrefetch();
+	}
+
+	public double getPrefetchThreshold()
+	{
+		return prefetchThreshold;
+	}
+
+	// The following members are used to build the prefetch lists
+	protected int clusterCount()
+	{
+		return k;
+	}
+
+	protected float[] clusterPrototype(int cluster)
+	{
+		return prototypes[cluster];
+	}
+
+	protected Set<Integer> clusterMembers(int cluster)
+	{
+		return members().get(cluster);
+	}
+
+	protected double[] parameters()
+	{
+		return new double[] { k };
+	}
+
+	protected void restoreClusters(float[][] prototypes, List<Set<Integer>> members)
+	{
+		for (int i = 0; i < k; i++)
+			this.prototypes[i] = Arrays.copyOf(prototypes[i], dim);
+
+		this.members = members;
+		resetPrefetch();
+	}
+}
@@ -0,0 +1,5 @@
+public interface TrainingListener
+{
+	// Called by a ClusteringAlgorithm after every iteration (k-means) or epoch (kohonen) of train()
+	void iteration(TrainingMetrics metrics);
+}
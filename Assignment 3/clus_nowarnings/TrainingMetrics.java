@@ -0,0 +1,84 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Vector;
+
+public class TrainingMetrics
+{
+	// The measurements of one training iteration, see TrainingListener
+
+	public String algorithm;
+	public int iteration;
+
+	// Wall time of the whole iteration and of each of its phases. The iteration ends with its last phase,
+	// computing the changed points and the error after it is timed separately in metricsNanos.
+	public long nanos;
+	public Vector<String> phases = new Vector<String>();
+	public Vector<Long> phaseNanos = new Vector<Long>();
+	public long metricsNanos;
+
+	// Number of points that changed cluster (or BMU) in this iteration, -1 if the algorithm doesn't know
+	public int changed;
+
+	// Sum of squared errors (k-means, leader-follower) or average quantization error (kohonen)
+	public double error;
+
+	// Bytes allocated by the training thread in the phases of this iteration, -1 if the JVM can't tell
+	public long allocatedBytes;
+
+	private long start;
+	private long phaseStart;
+	private long startAllocated;
+	private long phaseAllocated;
+
+	public TrainingMetrics(String algorithm, int iteration)
+	{
+		this.algorithm = algorithm;
+		this.iteration = iteration;
+
+		startAllocated = allocated();
+		phaseAllocated = startAllocated;
+		start = System.nanoTime();
+		phaseStart = start;
+	}
+
+	// Ends the current phase, the next phase starts now
+	public void phase(String name)
+	{
+		long now = System.nanoTime();
+		phases.add(name);
+		phaseNanos.add(now - phaseStart);
+		phaseStart = now;
+		if (startAllocated >= 0)
+			phaseAllocated = allocated();
+	}
+
+	// Ends the iteration, at the end of its last phase if it has phases
+	public void finish()
+	{
+		long now = System.nanoTime();
+		if (phases.isEmpty()) {
+			phaseStart = now;
+			if (startAllocated >= 0)
+				phaseAllocated = allocated();
+		}
+
+		nanos = phaseStart - start;
+		metricsNanos = now - phaseStart;
+		allocatedBytes = startAllocated < 0 ? -1 : phaseAllocated - startAllocated;
+	}
+
+	// Allocation rate in bytes per second
+	public double allocationRate()
+	{
+		return allocatedBytes < 0 || nanos == 0 ? -1 : allocatedBytes * 1e9 / nanos;
+	}
+
+	private static long allocated()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return -1;
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.*;
+import java.util.*;
+
+public class UsageDataGenerator
+{
+	// Generates client x url access matrices like train.dat and test.dat, so the algorithms can be run at any scale.
+	// Every client belongs to one of k planted clusters. A cluster has a set of topic urls, which its clients
+	// request with probability 1 - noise, all other urls are requested with probability noise. The popular urls
+	// (low ids) are more likely to be topic urls, about a fraction density of all urls is a topic url.
+	// The train and test row of a client are drawn independently from its cluster, like in the bundled data.
+	// Usage:
+	//   java UsageDataGenerator <dir> [clients=70] [urls=200] [k=8] [density=0.3] [noise=0.05] [sparse=false] [seed=42]
+	// writes train.dat, test.dat (or train.sparse, test.sparse, see SparseData), requests.dat and clients.dat.
+	// Rows are written as they are generated, only the topics of the clusters are kept in memory.
+
+	private final int urls;
+	private final double noise;
+	private final Random rnd;
+
+	// The topic urls of every cluster
+	private final BitSet[] topics;
+
+	// The cluster of the last generated client
+	private int cluster;
+
+	// The writers are checked for errors every CHECK_ROWS clients
+	private static final int CHECK_ROWS = 4096;
+
+	public UsageDataGenerator(int urls, int k, double density, double noise, long seed)
+	{
+		this.urls = urls;
+		this.noise = noise;
+		this.rnd = new Random(seed);
+
+		topics = new BitSet[k];
+		for (int c = 0; c < k; c++) {
+			topics[c] = new BitSet(urls);
+			for (int url = 0; url < urls; url++)
+				if (rnd.nextDouble() < 2 * density * (1.0 - (double) url / urls))
+					topics[c].set(url);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1) {
+			System.out.println("Usage: java UsageDataGenerator <dir> [clients=70] [urls=200] [k=8] [density=0.3] [noise=0.05] [sparse=false] [seed=42]");
+			return;
+		}
+
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("clients", "70");
+		params.put("urls", "200");
+		params.put("k", "8");
+		params.put("density", "0.3");
+		params.put("noise", "0.05");
+		params.put("sparse", "false");
+		params.put("seed", "42");
+		for (int i = 1; i < args.length; i++) {
+			int is = args[i].indexOf('=');
+			params.put(args[i].substring(0, is), args[i].substring(is + 1));
+		}
+
+		int clients = Integer.parseInt(params.get("clients"));
+		int urls = Integer.parseInt(params.get("urls"));
+		UsageDataGenerator generator = new UsageDataGenerator(urls, Integer.parseInt(params.get("k")),
+				Double.parseDouble(params.get("density")), Double.parseDouble(params.get("noise")), Long.parseLong(params.get("seed")));
+
+		File dir = new File(args[0]);
+		dir.mkdirs();
+
+		long start = System.currentTimeMillis();
+		generator.write(dir, clients, Boolean.parseBoolean(params.get("sparse")));
+
+		System.out.println("Wrote " + clients + " clients x " + urls + " urls to " + dir + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	public void write(File dir, int clients, boolean sparse) throws IOException
+	{
+		String extension = sparse ? ".sparse" : ".dat";
+		File trainFile = new File(dir, "train" + extension);
+		File testFile = new File(dir, "test" + extension);
+		File hostsFile = new File(dir, "clients.dat");
+		PrintWriter train = writer(trainFile);
+		PrintWriter test = writer(testFile);
+		PrintWriter hosts = writer(hostsFile);
+
+		float[] trainRow = new float[urls];
+		float[] testRow = new float[urls];
+		for (int client = 0; client < clients; client++) {
+			nextClient(trainRow, testRow);
+			writeRow(train, trainRow, sparse);
+			writeRow(test, testRow, sparse);
+			hosts.println("client" + client + ".cluster" + cluster + ".example.com");
+
+			///Stop at the first error (e.g. a full disk) instead of writing the rest for nothing
+			if (client % CHECK_ROWS == CHECK_ROWS - 1) {
+				check(train, trainFile);
+				check(test, testFile);
+				check(hosts, hostsFile);
+			}
+		}
+		close(train, trainFile);
+		close(test, testFile);
+		close(hosts, hostsFile);
+
+		File requestsFile = new File(dir, "requests.dat");
+		PrintWriter requests = writer(requestsFile);
+		for (int url = 0; url < urls; url++)
+			requests.println("/url" + url + ".html");
+		close(requests, requestsFile);
+	}
+
+	// Fills the train and test row of the next client, returns its cluster
+	public int nextClient(float[] trainRow, float[] testRow)
+	{
+		cluster = rnd.nextInt(topics.length);
+		BitSet topic = topics[cluster];
+
+		for (int url = 0; url < urls; url++) {
+			double p = topic.get(url) ? 1.0 - noise : noise;
+			trainRow[url] = rnd.nextDouble() < p ? 1.0f : 0.0f;
+			if (testRow != null)
+				testRow[url] = rnd.nextDouble() < p ? 1.0f : 0.0f;
+		}
+		return cluster;
+	}
+
+	private static void writeRow(PrintWriter out, float[] row, boolean sparse)
+	{
+		StringBuilder line = new StringBuilder(sparse ? 64 : 4 * row.length);
+		for (int url = 0; url < row.length; url++) {
+			if (!sparse)
+				line.append(url > 0 ? " " : "").append(row[url] != 0.0f ? "1.0" : "0.0");
+			else if (row[url] != 0.0f)
+				line.append(line.length() > 0 ? " " : "").append(url);
+		}
+		out.println(line);
+	}
+
+	private static PrintWriter writer(File file) throws IOException
+	{
+		return new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+	}
+
+	// A PrintWriter doesn't throw, its errors are only reported by checkError() (which also flushes it)
+	private static void check(PrintWriter out, File file) throws IOException
+	{
+		if (out.checkError())
+			throw new IOException("error writing " + file);
+	}
+
+	private static void close(PrintWriter out, File file) throws IOException
+	{
+		out.close();
+		check(out, file);
+	}
+}
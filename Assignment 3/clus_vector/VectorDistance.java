@@ -0,0 +1,107 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorDistance implements Distance.Kernel
+{
+	// The float distance kernels on the (incubating) Vector API. Distance loads this class by name
+	// at startup, so it is compiled and run apart from the other classes (it needs Java 16 or later):
+	//   javac --add-modules jdk.incubator.vector -cp ../clus_nowarnings VectorDistance.java
+	//   java --add-modules jdk.incubator.vector -cp ../clus_nowarnings:. RunClustering ...
+	// or with Maven (see ../pom.xml), which builds it into vector/target.
+	// The differences are taken in float, one vector of floats at a time, widened to two vectors of
+	// doubles and summed in double like the scalar kernel. The tail that doesn't fill a vector is scalar.
+
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	public double squared(float[] x, float[] p, int dim)
+	{
+		DoubleVector s0 = DoubleVector.zero(DOUBLES);
+		DoubleVector s1 = DoubleVector.zero(DOUBLES);
+		int upper = FLOATS.loopBound(dim);
+		int i = 0;
+
+		for (; i < upper; i += FLOATS.length()) {
+			FloatVector d = FloatVector.fromArray(FLOATS, x, i).sub(FloatVector.fromArray(FLOATS, p, i));
+			DoubleVector d0 = (DoubleVector) d.convertShape(VectorOperators.F2D, DOUBLES, 0);
+			DoubleVector d1 = (DoubleVector) d.convertShape(VectorOperators.F2D, DOUBLES, 1);
+			s0 = d0.fma(d0, s0);
+			s1 = d1.fma(d1, s1);
+		}
+
+		double sum = s0.add(s1).reduceLanes(VectorOperators.ADD);
+		for (; i < dim; i++) {
+			double d = x[i] - p[i];
+			sum += d * d;
+		}
+
+		return sum;
+	}
+
+	// The prototypes are compared in blocks of four, so every vector of x is loaded once per block
+	public int nearest(float[] x, float[][] prototypes, int dim)
+	{
+		double min = Double.MAX_VALUE;
+		int best = 0;
+		int c = 0;
+		int upper = FLOATS.loopBound(dim);
+
+		for (; c + 3 < prototypes.length; c += 4) {
+			float[] p0 = prototypes[c];
+			float[] p1 = prototypes[c + 1];
+			float[] p2 = prototypes[c + 2];
+			float[] p3 = prototypes[c + 3];
+			DoubleVector s0 = DoubleVector.zero(DOUBLES);
+			DoubleVector s1 = s0, s2 = s0, s3 = s0;
+			int i = 0;
+
+			for (; i < upper; i += FLOATS.length()) {
+				FloatVector xi = FloatVector.fromArray(FLOATS, x, i);
+				s0 = add(s0, xi.sub(FloatVector.fromArray(FLOATS, p0, i)));
+				s1 = add(s1, xi.sub(FloatVector.fromArray(FLOATS, p1, i)));
+				s2 = add(s2, xi.sub(FloatVector.fromArray(FLOATS, p2, i)));
+				s3 = add(s3, xi.sub(FloatVector.fromArray(FLOATS, p3, i)));
+			}
+
+			double d0 = s0.reduceLanes(VectorOperators.ADD);
+			double d1 = s1.reduceLanes(VectorOperators.ADD);
+			double d2 = s2.reduceLanes(VectorOperators.ADD);
+			double d3 = s3.reduceLanes(VectorOperators.ADD);
+			for (; i < dim; i++) {
+				float xi = x[i];
+				double e0 = xi - p0[i];
+				double e1 = xi - p1[i];
+				double e2 = xi - p2[i];
+				double e3 = xi - p3[i];
+				d0 += e0 * e0;
+				d1 += e1 * e1;
+				d2 += e2 * e2;
+				d3 += e3 * e3;
+			}
+
+			if (d0 < min) { min = d0; best = c; }
+			if (d1 < min) { min = d1; best = c + 1; }
+			if (d2 < min) { min = d2; best = c + 2; }
+			if (d3 < min) { min = d3; best = c + 3; }
+		}
+		for (; c < prototypes.length; c++) {
+			double d = squared(x, prototypes[c], dim);
+			if (d < min) {
+				min = d;
+				best = c;
+			}
+		}
+
+		return best;
+	}
+
+	// sum + d * d, with d widened to double
+	private static DoubleVector add(DoubleVector sum, FloatVector d)
+	{
+		DoubleVector d0 = (DoubleVector) d.convertShape(VectorOperators.F2D, DOUBLES, 0);
+		DoubleVector d1 = (DoubleVector) d.convertShape(VectorOperators.F2D, DOUBLES, 1);
+		return d1.fma(d1, d0.fma(d0, sum));
+	}
+}